@@ -0,0 +1,285 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import java.io.*;
+import java.nio.channels.*;
+
+/**
+ * Input stream decompressing BGZF file, i.e., series of gzip blocks made by
+ * bgzip. Blocks are independent, so they are inflated in parallel on a pool
+ * of threads, and are returned in the order of the file. Stream can also be
+ * limited to chunks of the file given by virtual offsets, e.g., from tabix
+ * index.
+ */
+class BgzfInputStream extends InputStream
+{
+    private static final int HEADER_SIZE = 18;
+
+    private InputStream     _in     = null;
+    private FileChannel     _ch     = null;
+    private ExecutorService _pool   = null;
+    private int             _ahead  = 0;
+    private LinkedList<Future<byte[]>> _blocks =
+	new LinkedList<Future<byte[]>>();
+    private LinkedList<Long> _offsets = new LinkedList<Long>();
+    private byte[]          _block  = new byte[0];
+    private int             _pos    = 0;
+    private long            _block_offset = 0, _coffset = 0;
+    private boolean         _eof    = false;
+    private ArrayList<long[]> _chunks = null;
+    private int             _chunk  = -1;
+    private long            _limit  = Long.MAX_VALUE; // End of chunk
+
+    private static final ThreadLocal<Inflater> _inflater =
+	new ThreadLocal<Inflater>() {
+	    protected Inflater initialValue() { return new Inflater(true); }
+	};
+
+    /**
+     * Returns stream decompressing the input. BGZF input is decompressed on
+     * given number of threads, other gzip input is decompressed as usual.
+     */
+    public static InputStream open(InputStream in,int threads)
+	throws IOException
+    {
+	PushbackInputStream pin = new PushbackInputStream(in,HEADER_SIZE);
+	byte[] header = new byte[HEADER_SIZE];
+	int    n      = readFully(pin,header,0,HEADER_SIZE);
+	if (n > 0) pin.unread(header,0,n);
+	if (threads <= 1 || n < HEADER_SIZE || blockSize(header) < 0)
+	    return new GZIPInputStream(pin,1 << 16);
+	return new BgzfInputStream(pin,threads);
+    }
+
+    /**
+     * Returns stream with contents of the file within chunks, which are
+     * pairs of virtual offsets: start and end.
+     */
+    public static BgzfInputStream open(String fileName,
+				       ArrayList<long[]> chunks,int threads)
+	throws IOException
+    {
+	FileChannel ch = new FileInputStream(fileName).getChannel();
+	BgzfInputStream ret = new BgzfInputStream(Channels.newInputStream(ch),
+						  Math.max(threads,1));
+	ret._ch     = ch;
+	ret._chunks = chunks;
+	ret._limit  = 0; // First chunk is taken on first read
+	return ret;
+    }
+
+    private BgzfInputStream(InputStream in,int threads)
+    {
+	_in    = in;
+	_ahead = 4*threads;
+	_pool  = Executors.newFixedThreadPool(threads,new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r,"bgzf");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+    }
+
+    public int read() throws IOException
+    {
+	if (available() <= 0) return -1;
+	return _block[_pos++] & 0xff;
+    }
+
+    public int read(byte[] b,int off,int len) throws IOException
+    {
+	if (len == 0) return 0;
+	int n = Math.min(len,available());
+	if (n <= 0) return -1;
+	System.arraycopy(_block,_pos,b,off,n);
+	_pos += n;
+	return n;
+    }
+
+    /**
+     * Returns number of bytes that can be read from the current block, going
+     * to the next block or chunk if needed. Zero means end of input.
+     */
+    public int available() throws IOException
+    {
+	while (true) {
+	    if (_limit != Long.MAX_VALUE &&
+		((_block_offset << 16) | _pos) >= _limit) {
+		if (!nextChunk()) return 0;
+		continue;
+	    }
+	    if (_pos < _block.length) {
+		if ((_limit >>> 16) == _block_offset)
+		    return Math.min(_block.length,(int)(_limit & 0xffff)) -
+			_pos;
+		return _block.length - _pos;
+	    }
+	    if (!nextBlock()) {
+		if (_chunks != null && nextChunk()) continue;
+		return 0;
+	    }
+	}
+    }
+
+    private boolean nextChunk() throws IOException
+    {
+	if (_chunks == null || ++_chunk >= _chunks.size()) {
+	    _chunk = (_chunks == null) ? 0 : _chunks.size();
+	    _limit = Long.MAX_VALUE;
+	    _block = new byte[0];
+	    _pos   = 0;
+	    _eof   = true;
+	    _blocks.clear();
+	    _offsets.clear();
+	    return false;
+	}
+	long[] chunk = _chunks.get(_chunk);
+	seek(chunk[0]);
+	_limit = chunk[1];
+	return true;
+    }
+
+    /**
+     * Moves to virtual offset in the file.
+     */
+    private void seek(long voffset) throws IOException
+    {
+	long coffset = voffset >>> 16;
+	int  uoffset = (int)(voffset & 0xffff);
+	if (_block_offset == coffset && _block.length > 0) { // Same block
+	    _pos = uoffset;
+	    return;
+	}
+	for (int i = 0;i < _blocks.size();i++) _blocks.get(i).cancel(false);
+	_blocks.clear();
+	_offsets.clear();
+	_ch.position(coffset);
+	_coffset = coffset;
+	_eof     = false;
+	_block   = new byte[0];
+	_pos     = 0;
+	if (nextBlock() && _block_offset == coffset) _pos = uoffset;
+    }
+
+    public void close() throws IOException
+    {
+	_pool.shutdownNow();
+	_blocks.clear();
+	_in.close();
+    }
+
+    /**
+     * Takes next non-empty block, keeping the pool busy with the following
+     * blocks.
+     */
+    private boolean nextBlock() throws IOException
+    {
+	while (true) {
+	    while (!_eof && _blocks.size() < _ahead) submitBlock();
+	    if (_blocks.size() == 0) return false;
+	    try {
+		_block_offset = _offsets.removeFirst();
+		_block = _blocks.removeFirst().get();
+	    } catch (ExecutionException ex) {
+		Throwable cause = ex.getCause();
+		if (cause instanceof IOException) throw (IOException)cause;
+		throw new IOException(cause.toString());
+	    } catch (InterruptedException ex) {
+		throw new InterruptedIOException();
+	    }
+	    _pos = 0;
+	    if (_block.length > 0) return true;
+	}
+    }
+
+    /**
+     * Reads compressed block and submits it for inflation.
+     */
+    private void submitBlock() throws IOException
+    {
+	byte[] header = new byte[HEADER_SIZE];
+	int n = readFully(_in,header,0,HEADER_SIZE);
+	if (n == 0) {
+	    _eof = true;
+	    return;
+	}
+	int size = (n == HEADER_SIZE) ? blockSize(header) : -1;
+	if (size < 0) throw new IOException("Invalid BGZF block.");
+	final byte[] block = Arrays.copyOf(header,size);
+	if (readFully(_in,block,HEADER_SIZE,size - HEADER_SIZE) !=
+	    size - HEADER_SIZE)
+	    throw new IOException("Truncated BGZF block.");
+	_offsets.addLast(_coffset);
+	_coffset += size;
+	_blocks.addLast(_pool.submit(new Callable<byte[]>() {
+		public byte[] call() throws IOException {
+		    return inflate(block);
+		}
+	    }));
+    }
+
+    private static byte[] inflate(byte[] block) throws IOException
+    {
+	int size  = block.length;
+	int xlen  = getShort(block,10);
+	int isize = getInt(block,size - 4);
+	int crc   = getInt(block,size - 8);
+	byte[] ret = new byte[isize];
+	Inflater inf = _inflater.get();
+	inf.reset();
+	inf.setInput(block,12 + xlen,size - 12 - xlen - 8);
+	try {
+	    int n = 0;
+	    while (n < isize && !inf.finished()) {
+		int k = inf.inflate(ret,n,isize - n);
+		if (k == 0 && (inf.needsInput() || inf.needsDictionary()))
+		    break;
+		n += k;
+	    }
+	    if (n != isize) throw new IOException("Corrupted BGZF block.");
+	} catch (DataFormatException ex) {
+	    throw new IOException(ex.toString());
+	}
+	CRC32 check = new CRC32();
+	check.update(ret,0,isize);
+	if ((int)check.getValue() != crc)
+	    throw new IOException("CRC error in BGZF block.");
+	return ret;
+    }
+
+    /**
+     * Returns total size of block by its header, or -1 if it is not BGZF.
+     */
+    private static int blockSize(byte[] h)
+    {
+	if ((h[0] & 0xff) != 0x1f || (h[1] & 0xff) != 0x8b || h[2] != 8 ||
+	    (h[3] & 4) == 0) return -1;
+	if (getShort(h,10) != 6 || h[12] != 'B' || h[13] != 'C' ||
+	    getShort(h,14) != 2) return -1;
+	return getShort(h,16) + 1;
+    }
+
+    private static int readFully(InputStream in,byte[] b,int off,int len)
+	throws IOException
+    {
+	int n = 0;
+	while (n < len) {
+	    int k = in.read(b,off + n,len - n);
+	    if (k < 0) break;
+	    n += k;
+	}
+	return n;
+    }
+
+    private static int getShort(byte[] b,int off)
+    {
+	return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static int getInt(byte[] b,int off)
+    {
+	return getShort(b,off) | (getShort(b,off + 2) << 16);
+    }
+}
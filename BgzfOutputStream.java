@@ -0,0 +1,150 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.zip.*;
+import java.io.*;
+
+/**
+ * Output stream compressing data in BGZF format, i.e., as a series of gzip
+ * blocks of at most 64 Kb each, as done by bgzip. While writing, offsets of
+ * the blocks are collected and on closing they are written into .gzi index,
+ * if its name is given.
+ */
+class BgzfOutputStream extends OutputStream
+{
+    private static final int BLOCK_INPUT  = 0xff00; // As in htslib
+    private static final int BLOCK_SIZE   = 0x10000;
+    private static final int HEADER_SIZE  = 18, FOOTER_SIZE = 8;
+    private static final byte[] EOF_BLOCK = {
+	0x1f,(byte)0x8b,0x08,0x04,0x00,0x00,0x00,0x00,0x00,(byte)0xff,
+	0x06,0x00,0x42,0x43,0x02,0x00,0x1b,0x00,0x03,0x00,
+	0x00,0x00,0x00,0x00,0x00,0x00,0x00,0x00 };
+
+    private OutputStream _os      = null;
+    private String       _gzi     = null;
+    private byte[]       _in      = new byte[BLOCK_INPUT];
+    private byte[]       _out     = new byte[BLOCK_SIZE];
+    private int          _n       = 0;
+    private long         _coffset = 0, _uoffset = 0;
+    private Deflater     _def     = new Deflater(Deflater.DEFAULT_COMPRESSION,
+						 true);
+    private CRC32        _crc     = new CRC32();
+    private ArrayList<long[]> _blocks = new ArrayList<long[]>(1024);
+
+    public BgzfOutputStream(OutputStream os,String gzi)
+    {
+	_os  = os;
+	_gzi = gzi;
+    }
+
+    public void write(int b) throws IOException
+    {
+	_in[_n++] = (byte)b;
+	if (_n == _in.length) writeBlock();
+    }
+
+    public void write(byte[] b,int off,int len) throws IOException
+    {
+	while (len > 0) {
+	    int n = Math.min(_in.length - _n,len);
+	    System.arraycopy(b,off,_in,_n,n);
+	    _n  += n;
+	    off += n;
+	    len -= n;
+	    if (_n == _in.length) writeBlock();
+	}
+    }
+
+    /**
+     * Flushes the underlying stream. Incomplete block is kept, so that
+     * blocks are not made smaller than needed.
+     */
+    public void flush() throws IOException
+    {
+	_os.flush();
+    }
+
+    /**
+     * Writes the last block, end-of-file marker and the index.
+     */
+    public void close() throws IOException
+    {
+	try {
+	    if (_n > 0) writeBlock();
+	    _os.write(EOF_BLOCK);
+	} finally {
+	    _def.end();
+	    _os.close();
+	}
+	if (_gzi != null) writeIndex();
+    }
+
+    private void writeBlock() throws IOException
+    {
+	_def.reset();
+	_def.setInput(_in,0,_n);
+	_def.finish();
+	int max  = _out.length - HEADER_SIZE - FOOTER_SIZE;
+	int clen = 0;
+	while (!_def.finished() && clen < max)
+	    clen += _def.deflate(_out,HEADER_SIZE + clen,max - clen);
+	if (!_def.finished())
+	    throw new IOException("BGZF block doesn't fit in 64 Kb.");
+	_crc.reset();
+	_crc.update(_in,0,_n);
+
+	int size = HEADER_SIZE + clen + FOOTER_SIZE;
+	_out[0] = 0x1f; _out[1] = (byte)0x8b; _out[2] = 8; _out[3] = 4;
+	_out[4] = _out[5] = _out[6] = _out[7] = _out[8] = 0;
+	_out[9] = (byte)0xff;
+	_out[10] = 6; _out[11] = 0; // Extra field
+	_out[12] = 'B'; _out[13] = 'C'; _out[14] = 2; _out[15] = 0;
+	putShort(_out,16,size - 1);
+	putInt(_out,HEADER_SIZE + clen,(int)_crc.getValue());
+	putInt(_out,HEADER_SIZE + clen + 4,_n);
+	_os.write(_out,0,size);
+
+	_coffset += size;
+	_uoffset += _n;
+	_n = 0;
+	long[] block = { _coffset,_uoffset };
+	_blocks.add(block);
+    }
+
+    /**
+     * Writes offsets of blocks, except the first one, in the same way as
+     * 'bgzip -i'.
+     */
+    private void writeIndex() throws IOException
+    {
+	OutputStream os =
+	    new BufferedOutputStream(new FileOutputStream(_gzi));
+	byte[] buf = new byte[8];
+	putLong(buf,_blocks.size());
+	os.write(buf);
+	for (int i = 0;i < _blocks.size();i++) {
+	    putLong(buf,_blocks.get(i)[0]);
+	    os.write(buf);
+	    putLong(buf,_blocks.get(i)[1]);
+	    os.write(buf);
+	}
+	os.close();
+    }
+
+    private static void putShort(byte[] b,int off,int v)
+    {
+	b[off]     = (byte)v;
+	b[off + 1] = (byte)(v >>> 8);
+    }
+
+    private static void putInt(byte[] b,int off,int v)
+    {
+	putShort(b,off,v);
+	putShort(b,off + 2,v >>> 16);
+    }
+
+    private static void putLong(byte[] b,long v)
+    {
+	putInt(b,0,(int)v);
+	putInt(b,4,(int)(v >>> 32));
+    }
+}
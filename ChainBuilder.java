@@ -0,0 +1,143 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Builds chain relating reference sequence to one of the haplotypes. Blocks
+ * of matching, deleted and inserted bases are given in the order of their
+ * positions in the reference. Aligned blocks can also be kept for liftover.
+ */
+class ChainBuilder
+{
+    private static final String EOL = System.getProperty("line.separator");
+
+    private String        _ref_name = "", _der_name = "";
+    private int           _ref_len = 0, _id = 0;
+    private long          _score = 0, _der_len = 0;
+    private int           _size = 0, _dref = 0, _dder = 0;
+    private boolean       _flag = false;
+    private StringBuilder _body = new StringBuilder();
+    private int[]         _blocks = null;
+    private int           _n_blocks = 0, _ref_pos = 0, _der_pos = 0;
+
+    public ChainBuilder(String ref_name,String der_name,int ref_len,int id)
+    {
+	_ref_name = ref_name;
+	_der_name = der_name;
+	_ref_len  = ref_len;
+	_id       = id;
+    }
+
+    /**
+     * Keeps aligned blocks, see blocks().
+     */
+    public void keepBlocks()
+    {
+	_blocks = new int[3*16];
+    }
+
+    /**
+     * Inserted bases before the next reference base.
+     */
+    public void insertion(int n)
+    {
+	if (n <= 0) return;
+	_dder    += n;
+	_der_len += n;
+	_flag     = true;
+	_der_pos += n;
+    }
+
+    /**
+     * Reference bases absent in the haplotype.
+     */
+    public void deletion(int n)
+    {
+	if (n <= 0) return;
+	_dref += n;
+	_flag  = true;
+	_ref_pos += n;
+    }
+
+    /**
+     * Reference bases present in the haplotype.
+     */
+    public void match(int n)
+    {
+	if (n <= 0) return;
+	if (_flag) {
+	    _body.append(_size).append(' ').append(_dref).append(' ');
+	    _body.append(_dder).append(EOL);
+	    addBlock();
+	    _size = _dref = _dder = 0;
+	    _flag = false;
+	}
+	_size    += n;
+	_score   += n;
+	_der_len += n;
+	_ref_pos += n;
+	_der_pos += n;
+    }
+
+    private void addBlock()
+    {
+	if (_blocks == null || _size == 0) return;
+	if (3*_n_blocks == _blocks.length)
+	    _blocks = Arrays.copyOf(_blocks,2*_blocks.length);
+	// Block ends where the gap before the current position begins
+	_blocks[3*_n_blocks]     = _ref_pos - _dref - _size;
+	_blocks[3*_n_blocks + 1] = _der_pos - _dder - _size;
+	_blocks[3*_n_blocks + 2] = _size;
+	_n_blocks++;
+    }
+
+    /**
+     * Returns kept aligned blocks as triples of 0-based start in reference,
+     * start in haplotype and size, in the order of positions.
+     */
+    public int[] blocks()
+    {
+	if (_blocks == null) return null;
+	if (_size == 0) return Arrays.copyOf(_blocks,3*_n_blocks);
+	int[] ret = Arrays.copyOf(_blocks,3*_n_blocks + 3); // And the last
+	ret[3*_n_blocks]     = _ref_pos - _dref - _size;
+	ret[3*_n_blocks + 1] = _der_pos - _dder - _size;
+	ret[3*_n_blocks + 2] = _size;
+	return ret;
+    }
+
+    /**
+     * Returns aligned blocks of the chain given as text, as blocks().
+     */
+    public static int[] blocks(String chain)
+    {
+	StringTokenizer lines = new StringTokenizer(chain,"\r\n");
+	int[] ret = new int[3*16];
+	int n = 0, r = 0, d = 0;
+	if (lines.hasMoreTokens()) lines.nextToken(); // Header
+	while (lines.hasMoreTokens()) {
+	    StringTokenizer toks = new StringTokenizer(lines.nextToken());
+	    int size = Integer.parseInt(toks.nextToken());
+	    if (size > 0) {
+		if (3*n == ret.length) ret = Arrays.copyOf(ret,2*ret.length);
+		ret[3*n] = r; ret[3*n + 1] = d; ret[3*n + 2] = size;
+		n++;
+	    }
+	    r += size;
+	    d += size;
+	    if (toks.hasMoreTokens()) r += Integer.parseInt(toks.nextToken());
+	    if (toks.hasMoreTokens()) d += Integer.parseInt(toks.nextToken());
+	}
+	return Arrays.copyOf(ret,3*n);
+    }
+
+    /**
+     * Returns the chain, which is ended by an empty line.
+     */
+    public String toString()
+    {
+	return "chain " + _score + " " +
+	    _ref_name + " " + _ref_len + " + 0 " + _ref_len + " " +
+	    _der_name + " " + _der_len + " + 0 " + _der_len + " " + _id + EOL +
+	    _body + _size + EOL + EOL;
+    }
+}
@@ -0,0 +1,204 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Decides which variants are applied to a haplotype. Bases changed by
+ * applied variants (deleted or substituted) are kept as disjoint intervals
+ * in a tree keyed by start, so variants overlapping a new one are found in
+ * logarithmic time, independent of deletion length. Conflicts are resolved
+ * by policy: the first variant wins (as before), the variant with highest
+ * QUAL wins, or the longest variant wins. Messages about conflicts are
+ * collected and returned in bulk.
+ */
+class ConflictResolver
+{
+    public static final int FIRST = 0, QUAL = 1, LONGEST = 2;
+    private static final String[] NAMES = { "first","qual","longest" };
+
+    private int _policy = FIRST;
+
+    public ConflictResolver(int policy)
+    {
+	_policy = policy;
+    }
+
+    /**
+     * Returns policy by its name, or -1 if the name is unknown.
+     */
+    public static int policy(String name)
+    {
+	for (int i = 0;i < NAMES.length;i++)
+	    if (NAMES[i].equalsIgnoreCase(name)) return i;
+	return -1;
+    }
+
+    /**
+     * Returns flags of variants to be applied to paternal or maternal
+     * haplotype of the reference. Applied variants don't conflict with each
+     * other. Messages about skipped variants are appended to the report,
+     * up to the limit of warnings, and skipped variants are counted in
+     * metrics.
+     */
+    public boolean[] resolve(Sequence ref,VariantStore vars,boolean paternal,
+			     StringBuilder report)
+    {
+	int n = vars.size(), len = ref.length();
+	boolean[] ret = new boolean[n];
+	int[]     end = new int[n]; // End of bases changed by variant
+	TreeMap<Integer,Integer> changed = new TreeMap<Integer,Integer>();
+	HashMap<Integer,Integer> ins     = new HashMap<Integer,Integer>();
+	ArrayList<Integer>  conflicts    = new ArrayList<Integer>();
+	int n_bounds = 0,n_overlap = 0,n_multi = 0,n_replaced = 0;
+	byte[] alleles = vars.alleles();
+	for (int i = 0;i < n;i++) {
+	    if ((paternal ? vars.paternal(i) : vars.maternal(i)) <= 0) continue;
+	    int pos = vars.position(i) - 1, del = vars.deletion(i);
+	    int off = offset(vars,i,paternal), n_ins = length(vars,i,paternal);
+	    if (pos >= len || pos + del >= len) {
+		n_bounds++;
+		if (Metrics.warn("variants out of chromosome bounds")) {
+		    report.append("Variant out of chromosome bounds at ");
+		    describe(report,ref,vars,i,paternal).append("Skipping.\n");
+		}
+		continue;
+	    }
+
+	    boolean snp = del == 1 && n_ins == 1;
+	    conflicts.clear();
+	    if (del > 0) overlapping(changed,end,pos,pos + del,conflicts);
+	    boolean overlap = conflicts.size() > 0;
+	    Integer other = snp ? null : ins.get(pos);
+	    if (other != null && !conflicts.contains(other))
+		conflicts.add(other);
+	    if (conflicts.size() > 0) {
+		if (!wins(vars,i,conflicts,paternal)) {
+		    if (overlap) n_overlap++;
+		    else         n_multi++;
+		    if (!Metrics.warn("overlapping variants")) continue;
+		    if (overlap) {
+			report.append("Variant overlap at ");
+			describe(report,ref,vars,i,paternal)
+			    .append("Skipping.\n");
+		    } else
+			report.append("Multiple insertions at " +
+				      ref.getName() + ":" + (pos + 1) + "\n" +
+				      "Skipping variant with (del,ins) of (" +
+				      del + "," +
+				      new String(alleles,off,n_ins) + ").\n");
+		    continue;
+		}
+		for (int c = 0;c < conflicts.size();c++) {
+		    int k = conflicts.get(c), start = vars.position(k) - 1;
+		    if (end[k] > 0) changed.remove(start);
+		    Integer owner = ins.get(start);
+		    if (owner != null && owner == k) ins.remove(start);
+		    ret[k] = false;
+		    n_replaced++;
+		    if (!Metrics.warn("overlapping variants")) continue;
+		    report.append("Variant overlap at ");
+		    describe(report,ref,vars,k,paternal)
+			.append("Replaced by variant at " + ref.getName() +
+				":" + (pos + 1) + ".\n");
+		}
+	    }
+
+	    ret[i] = true;
+	    if (snp) {
+		if (changes(ref.byteAt(pos),alleles[off])) {
+		    changed.put(pos,i);
+		    end[i] = pos + 1;
+		}
+	    } else {
+		if (del > 0) {
+		    changed.put(pos,i);
+		    end[i] = pos + del;
+		}
+		if (n_ins > 0) ins.put(pos,i);
+	    }
+	}
+	Metrics.count("conflict.out_of_bounds",n_bounds);
+	Metrics.count("conflict.overlap",n_overlap);
+	Metrics.count("conflict.multiple_insertions",n_multi);
+	Metrics.count("conflict.replaced",n_replaced);
+	return ret;
+    }
+
+    /**
+     * Adds variants changing bases in [start,stop) to the list. Intervals
+     * are disjoint, so the walk back from stop ends at the first interval
+     * ending before start.
+     */
+    private static void overlapping(TreeMap<Integer,Integer> changed,int[] end,
+				    int start,int stop,
+				    ArrayList<Integer> conflicts)
+    {
+	for (Integer k : changed.headMap(stop,false).descendingMap().values()) {
+	    if (end[k] <= start) break;
+	    conflicts.add(k);
+	}
+    }
+
+    /**
+     * Tells whether variant beats all conflicting ones. Ties are won by the
+     * earlier variant.
+     */
+    private boolean wins(VariantStore vars,int i,ArrayList<Integer> conflicts,
+			 boolean paternal)
+    {
+	if (_policy == FIRST) return false;
+	for (int c = 0;c < conflicts.size();c++) {
+	    int k = conflicts.get(c);
+	    if (_policy == QUAL) {
+		float q = vars.quality(i), qk = vars.quality(k);
+		if (Float.isNaN(q) || (!Float.isNaN(qk) && q <= qk))
+		    return false;
+	    } else if (span(vars,i,paternal) <= span(vars,k,paternal))
+		return false;
+	}
+	return true;
+    }
+
+    private static int span(VariantStore vars,int i,boolean paternal)
+    {
+	return Math.max(vars.deletion(i),length(vars,i,paternal));
+    }
+
+    /**
+     * Tells whether SNP changes the base, with case of the reference kept.
+     */
+    public static boolean changes(byte ref,byte alt)
+    {
+	return snp(ref,alt) != ref;
+    }
+
+    /**
+     * Returns base substituted by SNP, in the case of the reference base.
+     */
+    public static byte snp(byte ref,byte alt)
+    {
+	char c = (char)(alt & 0xff);
+	if (Character.isLowerCase((char)ref))
+	    return (byte)Character.toLowerCase(c);
+	return (byte)Character.toUpperCase(c);
+    }
+
+    private static int offset(VariantStore vars,int i,boolean paternal)
+    {
+	return paternal ? vars.paternalOffset(i) : vars.maternalOffset(i);
+    }
+
+    private static int length(VariantStore vars,int i,boolean paternal)
+    {
+	return paternal ? vars.paternalLength(i) : vars.maternalLength(i);
+    }
+
+    private static StringBuilder describe(StringBuilder sb,Sequence ref,
+					  VariantStore vars,int i,
+					  boolean paternal)
+    {
+	return sb.append(ref.getName() + ":" + vars.position(i) +
+			 ", (del,ins) of (" + vars.deletion(i) + "," +
+			 new String(vars.alleles(),offset(vars,i,paternal),
+				    length(vars,i,paternal)) + ").\n");
+    }
+}
@@ -0,0 +1,109 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Dictionary of contigs (chromosomes) giving index of a contig by its name.
+ * Contigs are registered from FASTA files or their indices and from
+ * '##contig' lines of VCF headers, so there is no fixed set of them. Names
+ * are matched ignoring case and 'chr' at the beginning, i.e., 'chr1' and
+ * '1' are the same contig. Human chromosomes and hs37d5 decoys have fixed
+ * indices: 1-22, 23 for X, 24 for Y, 25 for M/MT, and 26-86 for the
+ * decoys. Other contigs get next indices as they are registered.
+ */
+class ContigDictionary
+{
+    // Contigs added for hs37d5 compatibility, starting from index 26
+    private static final String[] DECOYS = {
+	"GL000207.1","GL000226.1","GL000229.1","GL000231.1","GL000210.1",
+	"GL000239.1","GL000235.1","GL000201.1","GL000247.1","GL000245.1",
+	"GL000197.1","GL000203.1","GL000246.1","GL000249.1","GL000196.1",
+	"GL000248.1","GL000244.1","GL000238.1","GL000202.1","GL000234.1",
+	"GL000232.1","GL000206.1","GL000240.1","GL000236.1","GL000241.1",
+	"GL000243.1","GL000242.1","GL000230.1","GL000237.1","GL000233.1",
+	"GL000204.1","GL000198.1","GL000208.1","GL000191.1","GL000227.1",
+	"GL000228.1","GL000214.1","GL000221.1","GL000209.1","GL000218.1",
+	"GL000220.1","GL000213.1","GL000211.1","GL000199.1","GL000217.1",
+	"GL000216.1","GL000215.1","GL000205.1","GL000219.1","GL000224.1",
+	"GL000223.1","GL000195.1","GL000212.1","GL000222.1","GL000200.1",
+	"GL000193.1","GL000194.1","GL000225.1","GL000192.1","NC_007605",
+	"hs37d5"
+    };
+
+    private static ConcurrentHashMap<String,Integer> _index =
+	new ConcurrentHashMap<String,Integer>();
+    private static ArrayList<String> _names = new ArrayList<String>();
+
+    static {
+	_names.add(null); // Indices start from 1
+	for (int i = 1;i <= 22;i++) put(Integer.toString(i));
+	put("X");
+	put("Y");
+	put("M");
+	_index.put("MT",25);
+	for (int i = 0;i < DECOYS.length;i++) put(key(DECOYS[i]));
+    }
+
+    /**
+     * Returns index of the contig, or -1 if it is not registered.
+     */
+    public static int index(String name)
+    {
+	Integer ret = _index.get(key(name));
+	return (ret == null) ? -1 : ret;
+    }
+
+    /**
+     * Registers contig, if it is new, and returns its index.
+     */
+    public static synchronized int add(String name)
+    {
+	String key = key(name);
+	Integer ret = _index.get(key);
+	return (ret == null) ? put(key) : ret;
+    }
+
+    /**
+     * Largest index of registered contigs.
+     */
+    public static synchronized int size() { return _names.size() - 1; }
+
+    /**
+     * Registers contigs from '##contig=<ID=name,...>' line of VCF header.
+     * Returns false if the line is not a contig line.
+     */
+    public static boolean addHeaderLine(String line)
+    {
+	if (!line.startsWith("##contig=<")) return false;
+	int s = line.indexOf("ID=");
+	if (s < 0) return false;
+	s += 3;
+	int e = s;
+	while (e < line.length() && line.charAt(e) != ',' &&
+	       line.charAt(e) != '>') e++;
+	if (e > s) add(line.substring(s,e));
+	return true;
+    }
+
+    private static int put(String key)
+    {
+	_names.add(key);
+	_index.put(key,_names.size() - 1);
+	return _names.size() - 1;
+    }
+
+    private static String key(String name)
+    {
+	if (name.length() > 3 && name.substring(0,3).equalsIgnoreCase("chr"))
+	    name = name.substring(3);
+	name = name.toUpperCase();
+	// Numbers are compared by value, e.g., '01' is the same as '1'
+	if (name.length() > 1 && name.length() < 10 && name.charAt(0) == '0') {
+	    boolean digits = true;
+	    for (int i = 0;i < name.length();i++)
+		if (!Character.isDigit(name.charAt(i))) digits = false;
+	    if (digits) name = Integer.toString(Integer.parseInt(name));
+	}
+	return name;
+    }
+}
@@ -0,0 +1,296 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+
+/**
+ * Server making genomes for jobs sent over local socket. Reference is loaded
+ * once, when the server starts, and is shared read-only by all jobs, so jobs
+ * don't pay for starting JVM and loading reference. Jobs run concurrently up
+ * to the given number; more wait in bounded queue, and jobs beyond that are
+ * refused. Each job holds a share of the memory budget estimated from its
+ * settings while it runs, so jobs don't run out of heap together.
+ *
+ * A client sends one line with arguments of a job, as for a single run but
+ * without -chr, separated by tabs. The server replies with QUEUED, and then
+ * with DONE and seconds the job took, or FAILED and reason. BUSY means the
+ * queue is full and INVALID means arguments are wrong. Line 'shutdown' stops
+ * the server once queued jobs are done.
+ *
+ * Metrics are global, so they cover all jobs together: jobs running at once
+ * add to the same timers and counters, the report is of the whole server,
+ * and the limit of warnings of each kind applies to all jobs.
+ */
+class DiploidServer
+{
+    // Options of the server, not of jobs
+    private static final String[] SERVER_OPTIONS = {
+	"-chr","-report","-max-warnings","-server","-submit","-version"
+    };
+    // Options given files, which the client makes absolute
+    private static final String[] FILE_OPTIONS = {
+	"-vcf","-ids","-out","-tmp","-cache","-annotation"
+    };
+
+    private ResidentReference  _reference = null;
+    private ThreadPoolExecutor _pool      = null;
+    private Semaphore          _memory    = null; // Megabytes
+    private int                _budget    = 0;
+    private ServerSocket       _socket    = null;
+
+    /**
+     * Memory budget is in megabytes.
+     */
+    public DiploidServer(ResidentReference reference,int jobs,int queue,
+			 int memory)
+    {
+	_reference = reference;
+	_pool      = new ThreadPoolExecutor(jobs,jobs,0,TimeUnit.SECONDS,
+					    new ArrayBlockingQueue<Runnable>
+					    (Math.max(queue,1)));
+	_budget    = Math.max(memory,1);
+	_memory    = new Semaphore(_budget);
+    }
+
+    /**
+     * Accepts jobs on local port until shutdown is requested, and waits for
+     * queued jobs to finish.
+     */
+    public void serve(int port) throws IOException
+    {
+	_socket = new ServerSocket(port,50,InetAddress.getLoopbackAddress());
+	System.out.println("Listening on port " + _socket.getLocalPort() +
+			   ".");
+	while (true) {
+	    final Socket socket;
+	    try {
+		socket = _socket.accept();
+	    } catch (SocketException ex) { // Closed by shutdown
+		break;
+	    }
+	    Thread handler = new Thread(new Runnable() {
+		    public void run() { handle(socket); }
+		},"client");
+	    handler.setDaemon(true);
+	    handler.start();
+	}
+	_pool.shutdown();
+	try {
+	    _pool.awaitTermination(Long.MAX_VALUE,TimeUnit.SECONDS);
+	} catch (InterruptedException ex) {
+	    throw new InterruptedIOException();
+	}
+    }
+
+    /**
+     * Reads job from the client, runs it and replies.
+     */
+    private void handle(Socket socket)
+    {
+	try {
+	    BufferedReader in = new BufferedReader
+		(new InputStreamReader(socket.getInputStream()));
+	    PrintWriter out = new PrintWriter
+		(new OutputStreamWriter(socket.getOutputStream()),true);
+	    String line = in.readLine();
+	    if (line == null) return;
+	    if (line.trim().equals("shutdown")) {
+		System.out.println("Shutting down.");
+		out.println("BYE");
+		_socket.close();
+		return;
+	    }
+	    final VCF2diploid maker = job(line.split("\t"));
+	    if (maker == null) {
+		out.println("INVALID");
+		return;
+	    }
+	    Future<Long> result = null;
+	    try {
+		result = _pool.submit(new Callable<Long>() {
+			public Long call() throws IOException
+			{
+			    return run(maker);
+			}
+		    });
+	    } catch (RejectedExecutionException ex) {
+		out.println("BUSY");
+		return;
+	    }
+	    out.println("QUEUED");
+	    try {
+		long nanos = result.get();
+		out.println("DONE " + nanos/1000000/1000.0);
+	    } catch (ExecutionException ex) {
+		System.err.println(ex.getCause().toString());
+		out.println("FAILED " + ex.getCause());
+	    }
+	} catch (Exception ex) {
+	    System.err.println(ex.toString());
+	} finally {
+	    try {
+		socket.close();
+	    } catch (IOException ex) { }
+	}
+    }
+
+    /**
+     * Returns maker for job arguments, or null if they are invalid.
+     */
+    private VCF2diploid job(String[] args)
+    {
+	for (int i = 0;i < args.length;i++)
+	    if (Arrays.asList(SERVER_OPTIONS).contains(args[i])) {
+		System.err.println("Option " + args[i] +
+				   " can't be given for a job.");
+		return null;
+	    }
+	String[] files = _reference.files();
+	String[] all = Arrays.copyOf(args,args.length + 1 + files.length);
+	all[args.length] = "-chr";
+	System.arraycopy(files,0,all,args.length + 1,files.length);
+	VCF2diploid ret = VCF2diploid.configure(all);
+	if (ret != null) ret.setReference(_reference);
+	return ret;
+    }
+
+    /**
+     * Makes genome within the memory budget. Returns time taken, or throws
+     * the error the job failed with.
+     */
+    private long run(VCF2diploid maker) throws IOException
+    {
+	long needed = maker.memoryNeeded(_reference.maxLength());
+	int mb = (int)Math.min(_budget,(needed >> 20) + 1);
+	_memory.acquireUninterruptibly(mb);
+	long start = System.nanoTime();
+	try {
+	    maker.make();
+	} finally {
+	    _memory.release(mb);
+	}
+	return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs server, see VCF2diploid usage.
+     */
+    public static void main(String[] args)
+    {
+	ArrayList<String> chrFiles = new ArrayList<String>(1);
+	int port = -1, jobs = 1, queue = 16, max_warnings = 100;
+	int memory = (int)(Runtime.getRuntime().maxMemory()*3/4 >> 20);
+	String report = null;
+	for (int i = 0;i < args.length;i++) {
+	    if (args[i].equals("-chr")) {
+		while (++i < args.length)
+		    if (args[i].charAt(0) != '-') chrFiles.add(args[i]);
+		    else { i--; break; }
+	    } else if (args[i].equals("-report")) {
+		if (++i < args.length) report = args[i];
+	    } else if (args[i].equals("-server") ||
+		       args[i].equals("-jobs") || args[i].equals("-queue") ||
+		       args[i].equals("-memory") ||
+		       args[i].equals("-max-warnings")) {
+		String opt = args[i];
+		int    n   = -2;
+		if (++i < args.length)
+		    try {
+			n = Integer.parseInt(args[i]);
+		    } catch (Exception ex) { }
+		if (n < -1 || (n < 0 && !opt.equals("-max-warnings"))) {
+		    System.err.println("Invalid value for " + opt + ".");
+		    return;
+		}
+		if      (opt.equals("-server")) port   = n;
+		else if (opt.equals("-jobs"))   jobs   = Math.max(n,1);
+		else if (opt.equals("-queue"))  queue  = n;
+		else if (opt.equals("-memory")) memory = n;
+		else max_warnings = n;
+	    }
+	}
+	if (chrFiles.size() == 0) {
+	    System.err.println("No chromosome file(s) is given!");
+	    return;
+	}
+
+	Metrics.reset();
+	Metrics.setMaxWarnings(max_warnings);
+	Metrics.Timer timer = Metrics.start(Metrics.FASTA_LOAD,"reference");
+	ResidentReference reference =
+	    new ResidentReference(chrFiles.toArray(new String[0]));
+	timer.stop();
+	Metrics.count("fasta.bases_loaded",reference.totalBases());
+	System.out.println("Loaded " + reference.totalBases() + " bases.");
+	try {
+	    new DiploidServer(reference,jobs,queue,memory).serve(port);
+	} catch (IOException ex) {
+	    System.err.println(ex.toString());
+	}
+	Metrics.printSuppressed();
+	if (report != null)
+	    try {
+		Metrics.writeReport(report,VCF2diploid.VERSION,jobs,null);
+	    } catch (Exception ex) {
+		System.err.println(ex.toString());
+	    }
+    }
+
+    /**
+     * Sends job given by arguments after '-submit port' to the server and
+     * prints replies. Files are made absolute, as the server may run in
+     * other directory, and output goes into the current directory of the
+     * client, unless -out is given. '-shutdown' stops the server.
+     */
+    public static void submit(String[] args)
+    {
+	int port = -1;
+	StringBuilder job = new StringBuilder();
+	String opt = "";
+	boolean out_given = false;
+	for (int i = 0;i < args.length;i++) {
+	    String arg = args[i];
+	    if (arg.equals("-submit")) {
+		try {
+		    port = Integer.parseInt(args[++i]);
+		} catch (Exception ex) { }
+		continue;
+	    }
+	    if (arg.equals("-shutdown")) {
+		job.setLength(0);
+		job.append("shutdown");
+		break;
+	    }
+	    if (arg.length() > 0 && arg.charAt(0) == '-') {
+		opt = arg;
+		if (opt.equals("-out")) out_given = true;
+	    }
+	    else if (Arrays.asList(FILE_OPTIONS).contains(opt))
+		arg = new File(arg).getAbsolutePath();
+	    if (job.length() > 0) job.append('\t');
+	    job.append(arg);
+	}
+	if (port < 0) {
+	    System.err.println("No port of the server is given.");
+	    return;
+	}
+	if (!out_given && !job.toString().equals("shutdown")) {
+	    if (job.length() > 0) job.append('\t');
+	    job.append("-out\t").append(new File("").getAbsolutePath());
+	}
+	try {
+	    Socket socket = new Socket(InetAddress.getLoopbackAddress(),port);
+	    Writer out = new OutputStreamWriter(socket.getOutputStream());
+	    out.write(job.append('\n').toString());
+	    out.flush();
+	    BufferedReader in = new BufferedReader
+		(new InputStreamReader(socket.getInputStream()));
+	    String line;
+	    while ((line = in.readLine()) != null) System.out.println(line);
+	    socket.close();
+	} catch (IOException ex) {
+	    System.err.println(ex.toString());
+	}
+    }
+}
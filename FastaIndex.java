@@ -0,0 +1,152 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Index of FASTA file in samtools faidx (.fai) format. The index allows to
+ * locate a sequence in the file and to map it into memory without parsing
+ * the whole file. If the index file is missing or is older than FASTA file
+ * it is created.
+ */
+class FastaIndex
+{
+    private String           _fileName = "";
+    private ArrayList<Entry> _entries  = null;
+
+    private FastaIndex(String fileName,ArrayList<Entry> entries)
+    {
+	_fileName = fileName;
+	_entries  = entries;
+    }
+
+    /**
+     * Returns index for the FASTA file or null if the file can't be indexed,
+     * e.g., when lines in a sequence are of different length.
+     */
+    public static FastaIndex load(String fileName)
+    {
+	File fa  = new File(fileName);
+	File fai = new File(fileName + ".fai");
+	if (fai.exists() && fai.lastModified() >= fa.lastModified()) {
+	    ArrayList<Entry> entries = read(fai);
+	    if (entries != null) return new FastaIndex(fileName,entries);
+	}
+
+	ArrayList<Entry> entries = new FastaReader(fileName).scan();
+	if (entries == null) return null;
+	for (int i = 0;i < entries.size();i++)
+	    if (!entries.get(i).regular) {
+		System.err.println("Can't index file " + fileName + ", " +
+				   "sequence " + entries.get(i).name +
+				   " has lines of different length.");
+		return null;
+	    }
+	if (!write(fai,entries))
+	    System.err.println("Can't write index " + fai.getPath() + ".");
+	return new FastaIndex(fileName,entries);
+    }
+
+    public int   size()        { return _entries.size(); }
+    public Entry entry(int i)  { return _entries.get(i); }
+
+    /**
+     * Returns sequence for the entry. The sequence is mapped into memory
+     * when possible and is read otherwise.
+     */
+    public Sequence sequence(Entry e)
+    {
+	long size = e.fileBytes();
+	if (size <= Integer.MAX_VALUE) {
+	    FileInputStream fin = null;
+	    try {
+		fin = new FileInputStream(_fileName);
+		MappedByteBuffer buf =
+		    fin.getChannel().map(FileChannel.MapMode.READ_ONLY,
+					 e.offset,size);
+		return new MappedSequence(e,buf);
+	    } catch (Exception ex) {
+		System.err.println("Can't map sequence " + e.name + " from " +
+				   _fileName + ". Reading it instead.");
+	    } finally {
+		try {
+		    if (fin != null) fin.close();
+		} catch (Exception ex) { }
+	    }
+	}
+	return new FastaReader(_fileName).read(e);
+    }
+
+    private static ArrayList<Entry> read(File fai)
+    {
+	ArrayList<Entry> ret = new ArrayList<Entry>(1);
+	try {
+	    BufferedReader br = new BufferedReader(new FileReader(fai));
+	    String line = null;
+	    while ((line = br.readLine()) != null) {
+		if (line.length() == 0) continue;
+		String[] words = line.split("\t");
+		Entry e = new Entry(">" + words[0],Long.parseLong(words[2]));
+		e.length     = Long.parseLong(words[1]);
+		e.line_bases = Integer.parseInt(words[3]);
+		e.line_width = Integer.parseInt(words[4]);
+		ret.add(e);
+	    }
+	    br.close();
+	} catch (Exception ex) {
+	    System.err.println("Can't read index " + fai.getPath() + ".");
+	    System.err.println(ex.toString());
+	    return null;
+	}
+	return ret;
+    }
+
+    static boolean write(File fai,ArrayList<Entry> entries)
+    {
+	try {
+	    BufferedWriter bw = new BufferedWriter(new FileWriter(fai));
+	    for (int i = 0;i < entries.size();i++) {
+		Entry e = entries.get(i);
+		bw.write(e.name + "\t" + e.length + "\t" + e.offset + "\t" +
+			 e.line_bases + "\t" + e.line_width);
+		bw.newLine();
+	    }
+	    bw.close();
+	} catch (Exception ex) {
+	    fai.delete();
+	    return false;
+	}
+	return true;
+    }
+
+    /**
+     * Record about one sequence in FASTA file.
+     */
+    public static class Entry
+    {
+	public String  header = "",name = "";
+	public long    offset = 0,length = 0;
+	public int     line_bases = 0,line_width = 0;
+	public boolean regular = true; // All lines, but last, have same length
+
+	public Entry(String h,long o)
+	{
+	    header = h;
+	    offset = o;
+	    StringTokenizer toks = new StringTokenizer(h.substring(1));
+	    if (toks.hasMoreTokens()) name = toks.nextToken();
+	}
+
+	/**
+	 * Returns number of bytes in the file from the first to the last base
+	 * of the sequence.
+	 */
+	public long fileBytes()
+	{
+	    if (line_bases <= 0 || length <= 0) return length;
+	    long last = length - 1;
+	    return last/line_bases*line_width + last%line_bases + 1;
+	}
+    }
+}
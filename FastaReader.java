@@ -0,0 +1,220 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Reader of FASTA files. The file is read through a channel in two passes.
+ * The first pass finds records and counts their bases. The second pass
+ * copies bases of each record, skipping line ends, directly into an array
+ * of the exact size, which is then packed in 2 bits per base. So, memory
+ * used is about a quarter of the length of the loaded sequences and there
+ * is no limit on the length of a sequence, except that of Java arrays.
+ */
+class FastaReader
+{
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private String    _fileName = "";
+    private ByteBuffer _buf     = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public FastaReader(String fileName)
+    {
+	_fileName = fileName;
+    }
+
+    /**
+     * Reads all sequences in the file. Empty records are skipped.
+     */
+    public Sequence[] readAll()
+    {
+	ArrayList<Sequence> ss = new ArrayList<Sequence>(1);
+	FileInputStream fin = null;
+	try {
+	    fin = new FileInputStream(_fileName);
+	    FileChannel ch = fin.getChannel();
+	    ArrayList<FastaIndex.Entry> recs = scan(ch);
+	    for (int i = 0;i < recs.size();i++) {
+		FastaIndex.Entry rec = recs.get(i);
+		if (rec.length <= 0) continue;
+		ss.add(new PackedSequence(new Sequence(rec.header,
+						       load(ch,rec))));
+	    }
+	} catch (Exception ex) {
+	    System.err.println("Can't open file " + _fileName);
+	    System.err.println(ex.toString());
+	} finally {
+	    try {
+		if (fin != null) fin.close();
+	    } catch (Exception ex) { }
+	}
+	return ss.toArray(new Sequence[0]);
+    }
+
+    /**
+     * Reads one sequence given by the record.
+     */
+    public Sequence read(FastaIndex.Entry rec)
+    {
+	FileInputStream fin = null;
+	try {
+	    fin = new FileInputStream(_fileName);
+	    return new PackedSequence(new Sequence(rec.header,
+						   load(fin.getChannel(),rec)));
+	} catch (Exception ex) {
+	    System.err.println("Can't read sequence " + rec.name + " from " +
+			       _fileName);
+	    System.err.println(ex.toString());
+	} finally {
+	    try {
+		if (fin != null) fin.close();
+	    } catch (Exception ex) { }
+	}
+	return null;
+    }
+
+    /**
+     * Finds records in the file. Returns null if the file can't be read.
+     */
+    public ArrayList<FastaIndex.Entry> scan()
+    {
+	FileInputStream fin = null;
+	try {
+	    fin = new FileInputStream(_fileName);
+	    return scan(fin.getChannel());
+	} catch (Exception ex) {
+	    System.err.println("Can't open file " + _fileName);
+	    System.err.println(ex.toString());
+	} finally {
+	    try {
+		if (fin != null) fin.close();
+	    } catch (Exception ex) { }
+	}
+	return null;
+    }
+
+    /**
+     * Finds records in the file and their line layout. Bases before the
+     * first header are ignored.
+     */
+    private ArrayList<FastaIndex.Entry> scan(FileChannel ch)
+	throws IOException
+    {
+	ArrayList<FastaIndex.Entry> ret = new ArrayList<FastaIndex.Entry>(1);
+	ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+	FastaIndex.Entry rec = null;
+	boolean line_start = true, in_header = false, ended = false;
+	long    offset     = 0, line_offset = 0;
+	int     line_len   = 0;
+	ch.position(0);
+	_buf.clear();
+	while (ch.read(_buf) > 0) {
+	    _buf.flip();
+	    byte[] arr = _buf.array();
+	    int    n   = _buf.limit();
+	    for (int i = 0;i < n;i++) {
+		byte b = arr[i];
+		if (in_header) {
+		    if (b == '\n') {
+			rec = new FastaIndex.Entry(header.toString("ISO-8859-1"),
+						   offset + i + 1);
+			ret.add(rec);
+			in_header   = false;
+			line_start  = true;
+			ended       = false;
+			line_offset = offset + i + 1;
+			line_len    = 0;
+		    } else if (b != '\r') header.write(b);
+		} else if (b == '\n' || b == '\r') {
+		    line_start = true;
+		    if (b == '\n' && rec != null) {
+			int width = (int)(offset + i + 1 - line_offset);
+			ended = addLine(rec,line_len,width,ended);
+			line_offset = offset + i + 1;
+			line_len    = 0;
+		    }
+		} else if (line_start && b == '>') {
+		    header.reset();
+		    header.write(b);
+		    in_header  = true;
+		    line_start = false;
+		} else {
+		    line_start = false;
+		    if (rec != null) {
+			rec.length++;
+			line_len++;
+		    }
+		}
+	    }
+	    offset += n;
+	    _buf.clear();
+	}
+	if (in_header)
+	    ret.add(new FastaIndex.Entry(header.toString("ISO-8859-1"),offset));
+	else if (rec != null && line_len > 0) // No line end at end of file
+	    addLine(rec,line_len,-1,ended);
+	return ret;
+    }
+
+    /**
+     * Updates layout of the record with a line. Returns true if the line is
+     * shorter than others, i.e., is expected to be the last one.
+     */
+    private boolean addLine(FastaIndex.Entry rec,int bases,int width,
+			    boolean ended)
+    {
+	if (bases == 0) return true;
+	if (ended) {
+	    rec.regular = false;
+	    return true;
+	}
+	if (rec.line_bases == 0) { // First line
+	    rec.line_bases = bases;
+	    rec.line_width = (width < 0) ? bases + 1 : width;
+	    return false;
+	}
+	if (bases > rec.line_bases) rec.regular = false;
+	if (width >= 0 && width - bases != rec.line_width - rec.line_bases)
+	    rec.regular = false;
+	return bases < rec.line_bases;
+    }
+
+    /**
+     * Reads bases of the record into array of exact size.
+     */
+    private byte[] load(FileChannel ch,FastaIndex.Entry rec)
+	throws IOException
+    {
+	if (rec.length > Integer.MAX_VALUE)
+	    throw new IOException("Sequence " + rec.header + " is too long.");
+	byte[] ret   = new byte[(int)rec.length];
+	int    index = 0;
+	ch.position(rec.offset);
+	_buf.clear();
+	while (index < ret.length && ch.read(_buf) > 0) {
+	    _buf.flip();
+	    byte[] arr = _buf.array();
+	    int    n   = _buf.limit();
+	    int    i   = 0;
+	    while (i < n && index < ret.length) {
+		byte b = arr[i];
+		if (b == '\n' || b == '\r') {
+		    i++;
+		    continue;
+		}
+		int e = i + 1;
+		while (e < n && arr[e] != '\n' && arr[e] != '\r') e++;
+		int len = e - i;
+		if (len > ret.length - index) len = ret.length - index;
+		System.arraycopy(arr,i,ret,index,len);
+		index += len;
+		i = e;
+	    }
+	    _buf.clear();
+	}
+	if (index < ret.length)
+	    throw new IOException("Unexpected end of file " + _fileName);
+	return ret;
+    }
+}
@@ -0,0 +1,91 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+
+/**
+ * Writes one sequence in FASTA format. Bases are given as bytes in chunks of
+ * any size and are split into lines of fixed width. If name of index file is
+ * given, .fai index for the sequence is written on closing.
+ */
+class FastaWriter implements Closeable
+{
+    public  static final int    DEFAULT_WIDTH = 50;
+    private static final byte[] EOL =
+	System.getProperty("line.separator").getBytes();
+
+    private OutputStream _os     = null;
+    private String       _fai    = null;
+    private byte[]       _line   = null;
+    private int          _n      = 0;
+    private long         _length = 0, _offset = 0;
+    private String       _name   = "";
+
+    public FastaWriter(OutputStream os,String name,int width,String fai)
+	throws IOException
+    {
+	_os   = os;
+	_name = name;
+	_fai  = fai;
+	_line = new byte[(width > 0) ? width : DEFAULT_WIDTH];
+	byte[] header = (">" + name).getBytes();
+	_os.write(header);
+	_os.write(EOL);
+	_offset = header.length + EOL.length;
+    }
+
+    public void write(byte b) throws IOException
+    {
+	_line[_n++] = b;
+	_length++;
+	if (_n == _line.length) flushLine();
+    }
+
+    public void write(byte[] b,int off,int len) throws IOException
+    {
+	_length += len;
+	while (len > 0) {
+	    int n = _line.length - _n;
+	    if (n > len) n = len;
+	    if (_n == 0 && n == _line.length) { // Whole line, no copying
+		_os.write(b,off,n);
+		_os.write(EOL);
+	    } else {
+		System.arraycopy(b,off,_line,_n,n);
+		_n += n;
+		if (_n == _line.length) flushLine();
+	    }
+	    off += n;
+	    len -= n;
+	}
+    }
+
+    /**
+     * Writes the last line, closes the stream and writes the index. The
+     * stream is closed even if writing fails.
+     */
+    public void close() throws IOException
+    {
+	try {
+	    if (_n > 0) flushLine();
+	} finally {
+	    _os.close();
+	}
+	if (_fai == null) return;
+
+	FastaIndex.Entry e = new FastaIndex.Entry(">" + _name,_offset);
+	e.length     = _length;
+	e.line_bases = _line.length;
+	e.line_width = _line.length + EOL.length;
+	ArrayList<FastaIndex.Entry> entries = new ArrayList<FastaIndex.Entry>(1);
+	entries.add(e);
+	if (!FastaIndex.write(new File(_fai),entries))
+	    System.err.println("Can't write index " + _fai + ".");
+    }
+
+    private void flushLine() throws IOException
+    {
+	_os.write(_line,0,_n);
+	_os.write(EOL);
+	_n = 0;
+    }
+}
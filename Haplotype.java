@@ -0,0 +1,76 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Haplotype kept as a set of edits to the reference sequence. Memory used is
+ * proportional to the number of applied variants rather than to the length of
+ * the sequence. Variants are applied as when they are applied to a copy of
+ * the reference.
+ */
+class Haplotype
+{
+    private Sequence                 _ref  = null;
+    private TreeMap<Integer,Byte>    _snps = new TreeMap<Integer,Byte>();
+    private TreeMap<Integer,Integer> _dels = new TreeMap<Integer,Integer>();
+    private InsertionIndex           _ins  = new InsertionIndex();
+
+    public Haplotype(Sequence ref)
+    {
+	_ref = ref;
+    }
+
+    /**
+     * Applies variant, which doesn't conflict with applied ones (see
+     * ConflictResolver). Inserted bases are given by offset and length in
+     * the array.
+     */
+    public void addVariant(int pos,int del,byte[] ins,int off,int n)
+    {
+	if (del == 1 && n == 1) { // SNP
+	    _snps.put(pos,ConflictResolver.snp(_ref.byteAt(pos),ins[off]));
+	    return;
+	}
+	if (del > 0) _dels.put(pos,pos + del); // Indel, SV
+	if (n > 0) _ins.put(pos,ins,off,n);
+    }
+
+    /**
+     * Returns true if base at the position is deleted.
+     */
+    public boolean isDeleted(int p)
+    {
+	Map.Entry<Integer,Integer> e = _dels.floorEntry(p);
+	return e != null && e.getValue() > p;
+    }
+
+    /**
+     * Returns base of the haplotype at the position, which is not deleted.
+     */
+    public byte byteAt(int p)
+    {
+	Byte b = _snps.get(p);
+	return (b == null) ? _ref.byteAt(p) : b.byteValue();
+    }
+
+    /**
+     * Returns insertions, each before the base at its position.
+     */
+    public InsertionIndex insertions() { return _ins; }
+
+    /**
+     * Adds positions, where haplotype differs from reference or where such
+     * difference ends, to the set.
+     */
+    public void addBreakpoints(TreeSet<Integer> points)
+    {
+	for (Integer p : _snps.keySet()) {
+	    points.add(p);
+	    points.add(p + 1);
+	}
+	for (Map.Entry<Integer,Integer> e : _dels.entrySet()) {
+	    points.add(e.getKey());
+	    points.add(e.getValue());
+	}
+	for (int i = 0;i < _ins.size();i++) points.add(_ins.position(i));
+    }
+}
@@ -0,0 +1,159 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Insertions into a haplotype keyed by position in the reference. Positions
+ * are kept as primitive ints and inserted bases are packed in one array.
+ * Insertions can be added in any order; they are sorted by position on the
+ * first access by index, which is used by writers to walk them along with
+ * the reference.
+ */
+class InsertionIndex
+{
+    private static final int EMPTY = -1;
+
+    private int[]   _pos    = new int[16];
+    private int[]   _start  = new int[16];
+    private int[]   _len    = new int[16];
+    private byte[]  _bases  = new byte[256];
+    private int     _n      = 0, _n_bases = 0;
+    private boolean _sorted = true;
+    private int[]   _hash   = new int[32]; // Positions, for lookup by position
+
+    public InsertionIndex()
+    {
+	Arrays.fill(_hash,EMPTY);
+    }
+
+    /**
+     * Returns true if there is an insertion at the position.
+     */
+    public boolean contains(int pos)
+    {
+	int mask = _hash.length - 1;
+	for (int h = mix(pos) & mask;_hash[h] != EMPTY;h = (h + 1) & mask)
+	    if (_hash[h] == pos) return true;
+	return false;
+    }
+
+    /**
+     * Adds insertion at the position. Empty insertions are ignored. The
+     * caller checks that there is no other insertion at the position.
+     */
+    public void put(int pos,byte[] ins,int off,int len)
+    {
+	if (len <= 0) return;
+	if (_n == _pos.length) {
+	    int n   = _n*2;
+	    _pos    = Arrays.copyOf(_pos,n);
+	    _start  = Arrays.copyOf(_start,n);
+	    _len    = Arrays.copyOf(_len,n);
+	}
+	if (_n_bases + len > _bases.length)
+	    _bases = Arrays.copyOf(_bases,Math.max(_bases.length*2,
+						   _n_bases + len));
+	System.arraycopy(ins,off,_bases,_n_bases,len);
+	if (_n > 0 && _pos[_n - 1] > pos) _sorted = false;
+	_pos[_n]   = pos;
+	_start[_n] = _n_bases;
+	_len[_n]   = len;
+	_n++;
+	_n_bases += len;
+
+	if (2*_n > _hash.length) rehash();
+	int mask = _hash.length - 1;
+	int h    = mix(pos) & mask;
+	while (_hash[h] != EMPTY) h = (h + 1) & mask;
+	_hash[h] = pos;
+    }
+
+    public int size()        { return _n; }
+    public int totalLength() { return _n_bases; }
+
+    /**
+     * Position of i-th insertion in the order of positions.
+     */
+    public int position(int i) { sort(); return _pos[i]; }
+
+    /**
+     * Length of i-th insertion in the order of positions.
+     */
+    public int length(int i)   { sort(); return _len[i]; }
+
+    /**
+     * Array with bases of all insertions and offset of i-th insertion in it.
+     */
+    public byte[] bases()      { return _bases; }
+    public int    offset(int i) { sort(); return _start[i]; }
+
+    /**
+     * Returns index of insertion at the position, or -1 if there is none.
+     */
+    public int find(int pos)
+    {
+	if (!contains(pos)) return -1;
+	sort();
+	return Arrays.binarySearch(_pos,0,_n,pos);
+    }
+
+    /**
+     * Checks if i-th insertion is the same as j-th insertion in other index.
+     */
+    public boolean same(int i,InsertionIndex other,int j)
+    {
+	sort();
+	other.sort();
+	if (_len[i] != other._len[j]) return false;
+	int a = _start[i], b = other._start[j];
+	for (int k = 0;k < _len[i];k++)
+	    if (_bases[a + k] != other._bases[b + k]) return false;
+	return true;
+    }
+
+    public String toString(int i)
+    {
+	sort();
+	StringBuilder ret = new StringBuilder(_len[i]);
+	for (int k = 0;k < _len[i];k++)
+	    ret.append((char)_bases[_start[i] + k]);
+	return ret.toString();
+    }
+
+    private void sort()
+    {
+	if (_sorted) return;
+	long[] keys = new long[_n];
+	for (int i = 0;i < _n;i++) keys[i] = ((long)_pos[i] << 32) | i;
+	Arrays.sort(keys);
+	int[] start = new int[_start.length], len = new int[_len.length];
+	for (int i = 0;i < _n;i++) {
+	    int k    = (int)keys[i];
+	    _pos[i]  = (int)(keys[i] >>> 32);
+	    start[i] = _start[k];
+	    len[i]   = _len[k];
+	}
+	_start  = start;
+	_len    = len;
+	_sorted = true;
+    }
+
+    private void rehash()
+    {
+	int[] old = _hash;
+	_hash = new int[old.length*2];
+	Arrays.fill(_hash,EMPTY);
+	int mask = _hash.length - 1;
+	for (int i = 0;i < old.length;i++) {
+	    if (old[i] == EMPTY) continue;
+	    int h = mix(old[i]) & mask;
+	    while (_hash[h] != EMPTY) h = (h + 1) & mask;
+	    _hash[h] = old[i];
+	}
+    }
+
+    private static int mix(int x)
+    {
+	x *= 0x9E3779B9;
+	return x ^ (x >>> 16);
+    }
+}
@@ -0,0 +1,288 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Liftover of annotation in BED or GTF/GFF format to haplotypes, done as
+ * chromosomes are made. The file is scanned once for runs of lines of each
+ * chromosome. Records of a chromosome are then converted through aligned
+ * blocks of both haplotypes in one pass; blocks are scanned forward, as
+ * records are sorted by position (a record out of order is found by binary
+ * search). Converted records of each chromosome are kept in temporary files,
+ * which are joined in the order of the annotation when all chromosomes are
+ * done. As by liftOver, a record is converted if at least MIN_MATCH of its
+ * bases are in aligned blocks, and it then spans from the first to the last
+ * of them. Thick part of BED record (columns 7 and 8) is converted the same
+ * way and kept within the record. Other records go into .unmapped file with
+ * the reason. Records of chromosomes, which are not made, are not output.
+ */
+class LiftOver
+{
+    public static final double MIN_MATCH = 0.95;
+    private static final String DELETED = "#Deleted in new";
+    private static final String PARTIAL = "#Partially deleted in new";
+
+    private String  _file = null;
+    private boolean _gtf  = false; // Otherwise BED
+    private File    _tmp  = null;
+    private ArrayList<Integer> _order = new ArrayList<Integer>();
+    private HashMap<Integer,ArrayList<Long>> _runs =
+	new HashMap<Integer,ArrayList<Long>>();
+    // Paternal, maternal and their unmapped parts by sample and chromosome
+    private ConcurrentHashMap<String,File[]> _parts =
+	new ConcurrentHashMap<String,File[]>();
+
+    /**
+     * Scans the file. Chromosomes must be registered already. Temporary
+     * files go into the directory (null means the default one).
+     */
+    public LiftOver(String file,File tmp) throws IOException
+    {
+	_file = file;
+	_tmp  = tmp;
+	String lc = file.toLowerCase();
+	_gtf  = lc.endsWith(".gtf") || lc.endsWith(".gff") ||
+	    lc.endsWith(".gff3");
+	InputStream in = new BufferedInputStream(new FileInputStream(file),
+						 1 << 16);
+	try {
+	    StringBuilder name = new StringBuilder();
+	    String prev = null;
+	    long offset = 0;
+	    int  c = 0;
+	    while (c >= 0) {
+		long start = offset;
+		name.setLength(0);
+		while ((c = in.read()) >= 0 && c != '\t' && c != '\n') {
+		    name.append((char)c);
+		    offset++;
+		}
+		while (c >= 0 && c != '\n') { c = in.read(); offset++; }
+		if (c >= 0) offset++;
+		String chr = name.toString().trim();
+		if (chr.length() == 0 || isComment(chr) || chr.equals(prev))
+		    continue;
+		prev = chr;
+		int index = ContigDictionary.index(chr);
+		if (index <= 0) continue;
+		ArrayList<Long> runs = _runs.get(index);
+		if (runs == null) {
+		    _runs.put(index,runs = new ArrayList<Long>());
+		    _order.add(index);
+		}
+		runs.add(start);
+	    }
+	} finally {
+	    in.close();
+	}
+    }
+
+    private static boolean isComment(String line)
+    {
+	return line.startsWith("#") || line.startsWith("track") ||
+	    line.startsWith("browser");
+    }
+
+    /**
+     * Converts records of the chromosome for a sample through aligned blocks
+     * of paternal and maternal haplotypes, see ChainBuilder.blocks().
+     */
+    public void lift(String name,int sample,String pat_name,int[] pat,
+		     String mat_name,int[] mat) throws IOException
+    {
+	int index = ContigDictionary.index(name);
+	ArrayList<Long> runs = _runs.get(index);
+	if (runs == null) return;
+	Metrics.Timer timer = Metrics.start(Metrics.LIFTOVER,name);
+	File[] parts = new File[4];
+	BufferedWriter[] out = new BufferedWriter[4];
+	for (int i = 0;i < 4;i++) {
+	    parts[i] = File.createTempFile("vcf2diploid",".lift",_tmp);
+	    parts[i].deleteOnExit();
+	    out[i] = new BufferedWriter(new OutputStreamWriter
+					(new FileOutputStream(parts[i]),
+					 "ISO-8859-1"),1 << 16);
+	}
+	_parts.put(sample + "\t" + index,parts);
+	Cursor[] cursors = { new Cursor(pat),new Cursor(mat) };
+	String[] names   = { pat_name,mat_name };
+	long n_records = 0, n_unmapped = 0;
+	int[] lifted = new int[2], thick = new int[2];
+	for (int r = 0;r < runs.size();r++) {
+	    FileInputStream fin = new FileInputStream(_file);
+	    fin.getChannel().position(runs.get(r));
+	    BufferedReader br = new BufferedReader
+		(new InputStreamReader(fin,"ISO-8859-1"),1 << 16);
+	    String line;
+	    while ((line = br.readLine()) != null) {
+		if (line.length() == 0 || isComment(line)) continue;
+		String[] toks = line.split("\t",-1);
+		if (ContigDictionary.index(toks[0]) != index) break;
+		int f_beg = _gtf ? 3 : 1, f_end = _gtf ? 4 : 2;
+		int beg = 0, end = 0;
+		try {
+		    beg = Integer.parseInt(toks[f_beg]) - (_gtf ? 1 : 0);
+		    end = Integer.parseInt(toks[f_end]);
+		} catch (Exception ex) {
+		    if (Metrics.warn("invalid annotation records"))
+			System.err.println("Invalid annotation record '" +
+					   line + "'.");
+		    continue;
+		}
+		int t_beg = -1, t_end = -1; // Thick part of BED record
+		if (!_gtf && toks.length >= 8)
+		    try {
+			t_beg = Integer.parseInt(toks[6]);
+			t_end = Integer.parseInt(toks[7]);
+		    } catch (Exception ex) { // Not thickStart/End, kept as is
+			t_beg = -1;
+		    }
+		n_records++;
+		for (int h = 0;h < 2;h++) {
+		    String why = cursors[h].lift(beg,end,lifted);
+		    if (why != null) {
+			out[h + 2].write(why);
+			out[h + 2].newLine();
+			out[h + 2].write(line);
+			out[h + 2].newLine();
+			n_unmapped++;
+			continue;
+		    }
+		    toks[0]     = names[h];
+		    toks[f_beg] = Integer.toString(lifted[0] +
+						   (_gtf ? 1 : 0));
+		    toks[f_end] = Integer.toString(lifted[1]);
+		    if (t_beg >= 0) {
+			liftThick(cursors[h],t_beg,t_end,lifted,thick);
+			toks[6] = Integer.toString(thick[0]);
+			toks[7] = Integer.toString(thick[1]);
+		    }
+		    for (int i = 0;i < toks.length;i++) {
+			if (i > 0) out[h].write('\t');
+			out[h].write(toks[i]);
+		    }
+		    out[h].newLine();
+		}
+	    }
+	    br.close();
+	}
+	for (int i = 0;i < 4;i++) out[i].close();
+	timer.stop();
+	Metrics.count("liftover.records",n_records);
+	Metrics.count("liftover.unmapped",n_unmapped);
+    }
+
+    /**
+     * Converts thick part of BED record, whose span is converted already.
+     * Thick part starts at the first base of it present in the haplotype
+     * and ends after the last one, within the span; a deleted one becomes
+     * empty at the start of the span.
+     */
+    private static void liftThick(Cursor cursor,int beg,int end,int[] span,
+				  int[] ret)
+    {
+	if (DELETED.equals(cursor.lift(beg,end,ret))) ret[0] = ret[1] = span[0];
+	for (int i = 0;i < 2;i++)
+	    ret[i] = Math.min(Math.max(ret[i],span[0]),span[1]);
+    }
+
+    /**
+     * Joins converted records of the sample into paternal and maternal
+     * files, and their unmapped records into files with '.unmapped' added.
+     */
+    public void finish(int sample,String pat_file,String mat_file)
+	throws IOException
+    {
+	String[] files = { pat_file,mat_file,
+			   pat_file + ".unmapped",mat_file + ".unmapped" };
+	byte[] buf = new byte[1 << 16];
+	for (int i = 0;i < 4;i++) {
+	    OutputStream os = new FileOutputStream(files[i]);
+	    for (int c = 0;c < _order.size();c++) {
+		File[] parts = _parts.get(sample + "\t" + _order.get(c));
+		if (parts == null) continue;
+		InputStream in = new FileInputStream(parts[i]);
+		int n;
+		while ((n = in.read(buf)) > 0) os.write(buf,0,n);
+		in.close();
+		parts[i].delete();
+	    }
+	    os.close();
+	}
+	for (int c = 0;c < _order.size();c++)
+	    _parts.remove(sample + "\t" + _order.get(c));
+    }
+
+    /**
+     * Deletes converted records, which are not joined, e.g., when making
+     * genome failed.
+     */
+    public void discard()
+    {
+	Iterator<File[]> it = _parts.values().iterator();
+	while (it.hasNext()) {
+	    File[] parts = it.next();
+	    for (int i = 0;i < parts.length;i++) parts[i].delete();
+	}
+	_parts.clear();
+    }
+
+    /**
+     * Converts intervals through aligned blocks.
+     */
+    private static class Cursor
+    {
+	private int[] _blocks = null;
+	private int   _n = 0, _k = 0, _pos = 0;
+
+	public Cursor(int[] blocks)
+	{
+	    _blocks = blocks;
+	    _n      = blocks.length/3;
+	}
+
+	/**
+	 * Converts 0-based half-open interval. Returns null and fills the
+	 * converted interval, or returns reason why it is not converted. The
+	 * interval is filled for PARTIAL as well.
+	 */
+	public String lift(int beg,int end,int[] ret)
+	{
+	    if (beg < _pos) { // Out of order, first block ending after beg
+		int lo = 0, hi = _n;
+		while (lo < hi) {
+		    int mid = (lo + hi) >>> 1;
+		    if (_blocks[3*mid] + _blocks[3*mid + 2] <= beg)
+			lo = mid + 1;
+		    else hi = mid;
+		}
+		_k = lo;
+	    }
+	    while (_k < _n && _blocks[3*_k] + _blocks[3*_k + 2] <= beg) _k++;
+	    _pos = beg;
+	    if (end <= beg) { // Point between bases
+		if (_k < _n && _blocks[3*_k] <= beg) {
+		    ret[0] = ret[1] = _blocks[3*_k + 1] + beg - _blocks[3*_k];
+		    return null;
+		}
+		if (_k > 0 && _blocks[3*_k - 3] + _blocks[3*_k - 1] == beg) {
+		    ret[0] = ret[1] = _blocks[3*_k - 2] + _blocks[3*_k - 1];
+		    return null;
+		}
+		return DELETED;
+	    }
+	    long covered = 0;
+	    for (int k = _k;k < _n && _blocks[3*k] < end;k++) {
+		int r = _blocks[3*k], d = _blocks[3*k + 1];
+		int b = Math.max(beg,r), e = Math.min(end,r + _blocks[3*k + 2]);
+		if (covered == 0) ret[0] = d + b - r;
+		ret[1]   = d + e - r;
+		covered += e - b;
+	    }
+	    if (covered == 0) return DELETED;
+	    if (covered < MIN_MATCH*(end - beg)) return PARTIAL;
+	    return null;
+	}
+    }
+}
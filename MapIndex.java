@@ -0,0 +1,202 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Binary map of base correspondence between reference, paternal and maternal
+ * sequences, mapped into memory for fast conversion of coordinates. Blocks
+ * of the map are records of three ints (reference, paternal and maternal
+ * start of the block, 0 if not in the sequence), as in the text map. They
+ * are followed by sparse index: for every BUCKET blocks and each sequence,
+ * the last non-zero start before the bucket and its block. Trailer gives
+ * bucket size, number of blocks, lengths of the sequences and magic number.
+ * All ints are big-endian.
+ *
+ * A coordinate is converted by finding the last block starting at or before
+ * it in its sequence; within a block coordinates differ by the same offset.
+ * Non-zero starts of each sequence increase along the map, so the block is
+ * found by binary search over the index and scan of one bucket. Cursor
+ * converts sorted coordinates scanning forward from the previous block.
+ */
+class MapIndex
+{
+    public static final int REF = 0, PAT = 1, MAT = 2;
+    public static final int BUCKET = 256;
+    public static final int MAGIC  = 0x56324d31; // "V2M1"
+    private static final int TRAILER = 6;
+    private static final String[] NAMES = { "ref","pat","mat" };
+
+    private IntBuffer _map     = null;
+    private int       _n       = 0, _n_buckets = 0, _index = 0;
+    private int[]     _lengths = new int[3];
+
+    public MapIndex(String fileName) throws IOException
+    {
+	FileInputStream fin = new FileInputStream(fileName);
+	try {
+	    FileChannel ch = fin.getChannel();
+	    _map = ch.map(FileChannel.MapMode.READ_ONLY,0,ch.size())
+		.asIntBuffer();
+	} finally {
+	    fin.close();
+	}
+	int end = _map.limit() - TRAILER;
+	if (end < 0 || _map.get(end + 5) != MAGIC ||
+	    _map.get(end) != BUCKET)
+	    throw new IOException("Invalid binary map " + fileName + ".");
+	_n          = _map.get(end + 1);
+	_lengths[0] = _map.get(end + 2);
+	_lengths[1] = _map.get(end + 3);
+	_lengths[2] = _map.get(end + 4);
+	_n_buckets  = (_n + BUCKET - 1)/BUCKET;
+	_index      = 3*_n;
+	if (_index + 6*_n_buckets != end)
+	    throw new IOException("Invalid binary map " + fileName + ".");
+    }
+
+    public int blocks()             { return _n; }
+    public int length(int seq)      { return _lengths[seq]; }
+    public int start(int b,int seq) { return _map.get(3*b + seq); }
+
+    /**
+     * Returns coordinates in reference, paternal and maternal sequences
+     * corresponding to 1-based coordinate in the sequence. Coordinate is 0
+     * if the base is not in the sequence, e.g., deleted or inserted. All
+     * coordinates are 0 for coordinate outside of the sequence.
+     */
+    public int[] lookup(int seq,int pos)
+    {
+	int[] ret = new int[3];
+	convert(block(seq,pos),seq,pos,ret);
+	return ret;
+    }
+
+    /**
+     * Returns last block with non-zero start at or before position in the
+     * sequence, or -1.
+     */
+    public int block(int seq,int pos)
+    {
+	if (pos < 1 || pos > _lengths[seq]) return -1;
+	int lo = 0, hi = _n_buckets - 1; // Last bucket with index <= pos
+	while (lo < hi) {
+	    int mid = (lo + hi + 1) >>> 1;
+	    if (_map.get(_index + 6*mid + 2*seq) <= pos) lo = mid;
+	    else                                         hi = mid - 1;
+	}
+	if (_n_buckets == 0) return -1;
+	int ret = _map.get(_index + 6*lo + 2*seq + 1);
+	int end = Math.min(_n,(lo + 1)*BUCKET);
+	for (int b = lo*BUCKET;b < end;b++) {
+	    int s = start(b,seq);
+	    if (s == 0) continue;
+	    if (s > pos) break;
+	    ret = b;
+	}
+	return ret;
+    }
+
+    private void convert(int b,int seq,int pos,int[] ret)
+    {
+	ret[0] = ret[1] = ret[2] = 0;
+	if (b < 0) return;
+	int off = pos - start(b,seq);
+	for (int i = 0;i < 3;i++) {
+	    int s = start(b,i);
+	    if (s != 0) ret[i] = s + off;
+	}
+    }
+
+    /**
+     * Converts coordinates of one sequence. For coordinates given in
+     * increasing order the map is scanned forward from the previous block,
+     * so a batch costs about one pass over the map at most; otherwise the
+     * block is searched.
+     */
+    public class Cursor
+    {
+	private int _seq = REF, _pos = 0, _block = -1;
+
+	public Cursor(int seq)
+	{
+	    _seq = seq;
+	}
+
+	/**
+	 * Fills coordinates in reference, paternal and maternal sequences,
+	 * as for lookup().
+	 */
+	public void lookup(int pos,int[] ret)
+	{
+	    if (pos < _pos || _block < 0 || pos > _lengths[_seq])
+		_block = block(_seq,pos);
+	    else {
+		int scanned = 0;
+		for (int b = _block + 1;b < _n;b++) {
+		    int s = start(b,_seq);
+		    if (s == 0) continue;
+		    if (s > pos) break;
+		    _block = b;
+		    if (++scanned == BUCKET) { // Far ahead
+			_block = block(_seq,pos);
+			break;
+		    }
+		}
+	    }
+	    _pos = pos;
+	    convert(_block,_seq,pos,ret);
+	}
+    }
+
+    /**
+     * Prints coordinates corresponding to those read from the input, one
+     * per line. Arguments are binary map, sequence of the input coordinates
+     * (ref, pat or mat) and files with the coordinates; standard input is
+     * read if no file is given.
+     */
+    public static void main(String[] args)
+    {
+	if (args.length < 2 || Arrays.asList(NAMES).indexOf(args[1]) < 0) {
+	    System.err.println("Usage:\n\tvcf2diploid -lookup file.map.bin " +
+			       "ref|pat|mat [positions.txt ...]");
+	    return;
+	}
+	int seq = Arrays.asList(NAMES).indexOf(args[1]);
+	try {
+	    MapIndex map = new MapIndex(args[0]);
+	    PrintWriter out = new PrintWriter
+		(new BufferedWriter(new OutputStreamWriter(System.out),
+				    1 << 16));
+	    out.println("#" + NAMES[seq].toUpperCase() + "\tREF\tPAT\tMAT");
+	    for (int f = 2;f < Math.max(args.length,3);f++) {
+		Reader r = (f < args.length) ? new FileReader(args[f]) :
+		    new InputStreamReader(System.in);
+		BufferedReader br = new BufferedReader(r,1 << 16);
+		Cursor cursor = map.new Cursor(seq);
+		int[] coords = new int[3];
+		String line;
+		while ((line = br.readLine()) != null) {
+		    line = line.trim();
+		    if (line.length() == 0 || line.charAt(0) == '#') continue;
+		    int pos = 0;
+		    try {
+			pos = Integer.parseInt(line);
+		    } catch (NumberFormatException ex) {
+			System.err.println("Invalid coordinate '" + line +
+					   "'.");
+			continue;
+		    }
+		    cursor.lookup(pos,coords);
+		    out.println(pos + "\t" + coords[0] + "\t" + coords[1] +
+				"\t" + coords[2]);
+		}
+		br.close();
+	    }
+	    out.close();
+	} catch (IOException ex) {
+	    System.err.println(ex.toString());
+	}
+    }
+}
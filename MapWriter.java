@@ -0,0 +1,145 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+
+/**
+ * Writes map of base correspondence between reference, paternal and maternal
+ * sequences. Reference bases and insertions are given in the order of their
+ * positions in the reference. Map is written as text, in binary format read
+ * by MapIndex, or both.
+ */
+class MapWriter
+{
+    private static final int NOT_IN_GENOME = 0;
+
+    private BufferedWriter   _bw  = null;
+    private DataOutputStream _bin = null;
+    private int _ri =             1, _pi =             1, _mi =             1;
+    private int _pr = NOT_IN_GENOME, _pp = NOT_IN_GENOME, _pm = NOT_IN_GENOME;
+    private int _n  = 0;                        // Blocks written
+    private int[] _last  = new int[3];          // Last non-zero coordinates
+    private int[] _last_block = { -1,-1,-1 };   // and their blocks
+    private int[] _index = new int[6*16];       // Sparse index of blocks
+
+    public MapWriter(BufferedWriter bw) throws IOException
+    {
+	this(bw,null);
+    }
+
+    /**
+     * Text or binary output can be null. Streams are not closed.
+     */
+    public MapWriter(BufferedWriter bw,OutputStream bin) throws IOException
+    {
+	_bw = bw;
+	if (bin != null)
+	    _bin = new DataOutputStream(new BufferedOutputStream(bin,1 << 16));
+	if (_bw == null) return;
+	_bw.write("#REF\tPAT\tMAT");
+	_bw.newLine();
+    }
+
+    /**
+     * Insertions of given lengths in paternal and maternal haplotypes before
+     * the next reference base. Zero length means no insertion.
+     */
+    public void insertion(int pat,int mat,boolean same) throws IOException
+    {
+	if (pat <= 0 && mat <= 0) return;
+	if (_pr > 0 || _pp > 0 || _pm > 0) {
+	    write(_pr,_pp,_pm);
+	    _pr = _pp = _pm = NOT_IN_GENOME;
+	}
+	if (pat > 0 && mat > 0 && same) {
+	    write(NOT_IN_GENOME,_pi,_mi);
+	    _pi += pat;
+	    _mi += mat;
+	    return;
+	}
+	if (pat > 0) {
+	    write(NOT_IN_GENOME,_pi,NOT_IN_GENOME);
+	    _pi += pat;
+	}
+	if (mat > 0) {
+	    write(NOT_IN_GENOME,NOT_IN_GENOME,_mi);
+	    _mi += mat;
+	}
+    }
+
+    /**
+     * Next n reference bases, which are present or absent in paternal and
+     * maternal haplotypes. Only the first base can start a new block, the
+     * rest extend it.
+     */
+    public void bases(int n,boolean pat,boolean mat) throws IOException
+    {
+	if (n <= 0) return;
+	int ref = _ri;
+	int p   = pat ? _pi : NOT_IN_GENOME;
+	int m   = mat ? _mi : NOT_IN_GENOME;
+	if (_pr == NOT_IN_GENOME &&
+	    _pp == NOT_IN_GENOME &&
+	    _pm == NOT_IN_GENOME) { // Initiation
+	    _pr = ref; _pp = p; _pm = m;
+	} else {
+	    boolean cand =
+		((p == NOT_IN_GENOME && _pp == NOT_IN_GENOME) ||
+		 ref - _pr == p - _pp) &&
+		((m == NOT_IN_GENOME && _pm == NOT_IN_GENOME) ||
+		 ref - _pr == m - _pm);
+	    if (!cand) {
+		write(_pr,_pp,_pm);
+		_pr = ref; _pp = p; _pm = m;
+	    }
+	}
+	_ri += n;
+	if (pat) _pi += n;
+	if (mat) _mi += n;
+    }
+
+    /**
+     * Writes the last block, and index and trailer of binary map. The
+     * underlying streams are flushed, but not closed.
+     */
+    public void finish() throws IOException
+    {
+	if (_pr > 0 || _pp > 0 || _pm > 0) write(_pr,_pp,_pm);
+	_pr = _pp = _pm = NOT_IN_GENOME;
+	if (_bin == null) return;
+	int n_buckets = (_n + MapIndex.BUCKET - 1)/MapIndex.BUCKET;
+	for (int i = 0;i < 6*n_buckets;i++) _bin.writeInt(_index[i]);
+	_bin.writeInt(MapIndex.BUCKET);
+	_bin.writeInt(_n);
+	_bin.writeInt(_ri - 1);
+	_bin.writeInt(_pi - 1);
+	_bin.writeInt(_mi - 1);
+	_bin.writeInt(MapIndex.MAGIC);
+	_bin.flush();
+	_bin = null;
+    }
+
+    private void write(int r,int p,int m) throws IOException
+    {
+	if (_bw != null) {
+	    _bw.write(r + "\t" + p + "\t" + m);
+	    _bw.newLine();
+	}
+	if (_bin == null) return;
+	if (_n % MapIndex.BUCKET == 0) { // Last non-zero before the bucket
+	    int k = 6*(_n/MapIndex.BUCKET);
+	    if (k == _index.length)
+		_index = Arrays.copyOf(_index,2*_index.length);
+	    for (int c = 0;c < 3;c++) {
+		_index[k + 2*c]     = _last[c];
+		_index[k + 2*c + 1] = _last_block[c];
+	    }
+	}
+	_bin.writeInt(r);
+	_bin.writeInt(p);
+	_bin.writeInt(m);
+	if (r != NOT_IN_GENOME) { _last[0] = r; _last_block[0] = _n; }
+	if (p != NOT_IN_GENOME) { _last[1] = p; _last_block[1] = _n; }
+	if (m != NOT_IN_GENOME) { _last[2] = m; _last_block[2] = _n; }
+	_n++;
+    }
+}
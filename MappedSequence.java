@@ -0,0 +1,43 @@
+//--- Java imports ---
+import java.nio.*;
+
+/**
+ * Sequence in FASTA file mapped into memory. Bases are accessed through the
+ * line layout given by the index, so the sequence is not copied into heap.
+ */
+class MappedSequence extends Sequence
+{
+    private ByteBuffer _buf = null;
+    private int        _len = 0, _line_bases = 0, _line_width = 0;
+
+    public MappedSequence(FastaIndex.Entry e,ByteBuffer buf)
+    {
+	super(">" + e.name);
+	_buf        = buf;
+	_len        = (int)e.length;
+	_line_bases = e.line_bases;
+	_line_width = e.line_width;
+	if (_line_bases <= 0) _line_bases = _line_width = Math.max(_len,1);
+    }
+
+    public int  length()      { return _len; }
+    public byte byteAt(int p)
+    {
+	return _buf.get(p/_line_bases*_line_width + p%_line_bases);
+    }
+
+    public void copy(int from,byte[] dst,int off,int len)
+    {
+	ByteBuffer buf = _buf.duplicate();
+	while (len > 0) {
+	    int col = from%_line_bases;
+	    int n   = _line_bases - col;
+	    if (n > len) n = len;
+	    buf.position(from/_line_bases*_line_width + col);
+	    buf.get(dst,off,n);
+	    from += n;
+	    off  += n;
+	    len  -= n;
+	}
+    }
+}
@@ -0,0 +1,222 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.lang.management.*;
+
+/**
+ * Metrics of the run: time spent in phases, counters (e.g., skipped records
+ * by reason, bytes read and written) and count of warnings. Time of phases
+ * is summed over threads. Phases timed with start() and stop() are also
+ * recorded as JFR events. Warnings of each kind are printed only up to the
+ * limit; the rest are counted. Metrics are written as JSON report. They are
+ * shared by everything running in the process, e.g., by jobs of the server.
+ */
+class Metrics
+{
+    public static final int VCF_PARSE = 0, FASTA_LOAD = 1, RESOLVE = 2;
+    public static final int APPLY = 3, WRITE = 4, WRITE_FASTA = 5;
+    public static final int WRITE_MAP = 6, WRITE_CHAIN = 7, OUTPUT_IO = 8;
+    public static final int LIFTOVER = 9;
+    private static final String[] PHASES = {
+	"vcf_parse","fasta_load","conflict_resolution","variant_apply",
+	"write","write_fasta","write_map","write_chain","output_io",
+	"liftover"
+    };
+
+    private static final AtomicLongArray _nanos =
+	new AtomicLongArray(PHASES.length);
+    private static final AtomicLongArray _calls =
+	new AtomicLongArray(PHASES.length);
+    private static final ConcurrentHashMap<String,AtomicLong> _counters =
+	new ConcurrentHashMap<String,AtomicLong>();
+    private static final ConcurrentHashMap<String,AtomicLong> _warnings =
+	new ConcurrentHashMap<String,AtomicLong>();
+    private static volatile int _max_warnings = 100;
+    private static long _begin = System.nanoTime();
+
+    private Metrics() { }
+
+    /**
+     * Starts metrics of new run.
+     */
+    public static void reset()
+    {
+	for (int i = 0;i < PHASES.length;i++) {
+	    _nanos.set(i,0);
+	    _calls.set(i,0);
+	}
+	_counters.clear();
+	_warnings.clear();
+	_begin = System.nanoTime();
+    }
+
+    /**
+     * Sets number of warnings of one kind printed; negative means all.
+     */
+    public static void setMaxWarnings(int n)
+    {
+	_max_warnings = n;
+    }
+
+    /**
+     * Starts timing of phase for the target (e.g., file or chromosome).
+     */
+    public static Timer start(int phase,String target)
+    {
+	return new Timer(phase,target);
+    }
+
+    /**
+     * Adds time to phase. Used for phases made of many short steps.
+     */
+    public static void add(int phase,long nanos,long calls)
+    {
+	_nanos.addAndGet(phase,nanos);
+	_calls.addAndGet(phase,calls);
+    }
+
+    public static void count(String name,long n)
+    {
+	if (n == 0) return;
+	AtomicLong c = _counters.get(name);
+	if (c == null) {
+	    _counters.putIfAbsent(name,new AtomicLong());
+	    c = _counters.get(name);
+	}
+	c.addAndGet(n);
+    }
+
+    public static long counter(String name)
+    {
+	AtomicLong c = _counters.get(name);
+	return (c == null) ? 0 : c.get();
+    }
+
+    /**
+     * Counts warning of the kind and returns true if it is to be printed.
+     */
+    public static boolean warn(String kind)
+    {
+	AtomicLong c = _warnings.get(kind);
+	if (c == null) {
+	    _warnings.putIfAbsent(kind,new AtomicLong());
+	    c = _warnings.get(kind);
+	}
+	long n = c.incrementAndGet();
+	return _max_warnings < 0 || n <= _max_warnings;
+    }
+
+    /**
+     * Prints numbers of warnings which were not printed.
+     */
+    public static void printSuppressed()
+    {
+	TreeMap<String,AtomicLong> warnings =
+	    new TreeMap<String,AtomicLong>(_warnings);
+	for (Map.Entry<String,AtomicLong> e : warnings.entrySet()) {
+	    long n = e.getValue().get() - _max_warnings;
+	    if (_max_warnings >= 0 && n > 0)
+		System.err.println(n + " warnings about " + e.getKey() +
+				   " were not printed.");
+	}
+    }
+
+    /**
+     * Writes report in JSON format.
+     */
+    public static void writeReport(String fileName,String version,
+				   int threads,Long seed) throws IOException
+    {
+	StringBuilder sb = new StringBuilder();
+	sb.append("{\n  \"version\": \"").append(version).append("\",\n");
+	sb.append("  \"threads\": ").append(threads).append(",\n");
+	if (seed != null) sb.append("  \"seed\": ").append(seed).append(",\n");
+	sb.append("  \"wall_seconds\": ")
+	    .append(seconds(System.nanoTime() - _begin)).append(",\n");
+	sb.append("  \"phases\": {");
+	for (int i = 0;i < PHASES.length;i++) {
+	    sb.append((i == 0) ? "\n" : ",\n");
+	    sb.append("    \"").append(PHASES[i]).append("\": { \"seconds\": ");
+	    sb.append(seconds(_nanos.get(i))).append(", \"count\": ");
+	    sb.append(_calls.get(i)).append(" }");
+	}
+	sb.append("\n  },\n");
+	sb.append("  \"counters\": ");
+	append(sb,_counters);
+	sb.append(",\n  \"warnings\": ");
+	append(sb,_warnings);
+	sb.append(",\n");
+
+	long heap = 0; // Sum of peaks of heap pools
+	List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+	for (int i = 0;i < pools.size();i++)
+	    if (pools.get(i).getType() == MemoryType.HEAP)
+		heap += pools.get(i).getPeakUsage().getUsed();
+	long gc_n = 0,gc_ms = 0;
+	List<GarbageCollectorMXBean> gcs =
+	    ManagementFactory.getGarbageCollectorMXBeans();
+	for (int i = 0;i < gcs.size();i++) {
+	    gc_n  += Math.max(gcs.get(i).getCollectionCount(),0);
+	    gc_ms += Math.max(gcs.get(i).getCollectionTime(),0);
+	}
+	sb.append("  \"heap\": { \"peak_bytes\": ").append(heap);
+	sb.append(", \"max_bytes\": ").append(Runtime.getRuntime().maxMemory());
+	sb.append(" },\n");
+	sb.append("  \"gc\": { \"count\": ").append(gc_n);
+	sb.append(", \"seconds\": ").append(gc_ms/1000.0).append(" }\n");
+	sb.append("}\n");
+
+	Writer w = new BufferedWriter(new FileWriter(fileName));
+	w.write(sb.toString());
+	w.close();
+    }
+
+    private static void append(StringBuilder sb,Map<String,AtomicLong> map)
+    {
+	TreeMap<String,AtomicLong> sorted = new TreeMap<String,AtomicLong>(map);
+	sb.append("{");
+	String sep = "\n";
+	for (Map.Entry<String,AtomicLong> e : sorted.entrySet()) {
+	    sb.append(sep).append("    \"").append(e.getKey()).append("\": ");
+	    sb.append(e.getValue().get());
+	    sep = ",\n";
+	}
+	sb.append(sorted.size() > 0 ? "\n  }" : "}");
+    }
+
+    private static String seconds(long nanos)
+    {
+	return Double.toString(nanos/1e9);
+    }
+
+    /**
+     * Timing of one phase.
+     */
+    public static class Timer
+    {
+	private int        _phase = 0;
+	private long       _start = 0;
+	private PhaseEvent _event = null;
+
+	private Timer(int phase,String target)
+	{
+	    _phase = phase;
+	    _event = new PhaseEvent();
+	    if (_event.isEnabled()) {
+		_event.phase  = PHASES[phase];
+		_event.target = target;
+		_event.begin();
+	    } else _event = null;
+	    _start = System.nanoTime();
+	}
+
+	public void stop()
+	{
+	    add(_phase,System.nanoTime() - _start,1);
+	    if (_event != null) _event.commit();
+	    _event = null;
+	}
+    }
+}
@@ -0,0 +1,360 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+import java.security.*;
+
+/**
+ * Cache of output of chromosomes for incremental rebuilds. Output of a
+ * chromosome for a sample is fingerprinted by bases of the reference,
+ * variants applied to it and settings affecting output. Manifest in the
+ * cache directory records the fingerprint, and sizes, modification times and
+ * digests of output files of each chromosome; chains are kept in the
+ * directory under the fingerprint. When the fingerprint of a chromosome and
+ * its files match the manifest, files are reused as they are and only chains
+ * are taken from the cache. A file is read to check its digest only if its
+ * modification time has changed.
+ */
+class OutputCache
+{
+    private static final String MANIFEST = "manifest.txt";
+    private static final String PAT = ".paternal.chain";
+    private static final String MAT = ".maternal.chain";
+
+    private File   _dir      = null;
+    private String _settings = "";
+    private HashMap<String,Entry> _entries = new HashMap<String,Entry>();
+    private HashMap<String,Entry> _made    = new HashMap<String,Entry>();
+
+    /**
+     * Settings are any text describing options which affect output.
+     */
+    public OutputCache(File dir,String settings)
+    {
+	_dir      = dir;
+	_settings = settings;
+	_dir.mkdirs();
+	try {
+	    BufferedReader br =
+		new BufferedReader(new FileReader(new File(_dir,MANIFEST)));
+	    String line;
+	    while ((line = br.readLine()) != null) {
+		Entry e = Entry.parse(line);
+		if (e != null) _entries.put(e.key,e);
+	    }
+	    br.close();
+	} catch (FileNotFoundException ex) { // New cache
+	} catch (IOException ex) {
+	    System.err.println(ex.toString());
+	}
+    }
+
+    /**
+     * Returns fingerprint of output of the chromosome for a sample. Must be
+     * called before haplotypes of unphased variants are randomized. The seed
+     * is used only if there are unphased variants.
+     */
+    public String fingerprint(Reference ref,VariantStore vars,String sample,
+			      int chain_id,long seed)
+    {
+	MessageDigest md = sha256();
+	DataOutputStream out =
+	    new DataOutputStream(new DigestOutputStream(new NullStream(),md));
+	try {
+	    out.writeUTF(_settings);
+	    out.writeUTF(sample);
+	    out.writeInt(chain_id);
+	    out.write(ref.digest());
+	    int n = vars.size();
+	    boolean unphased = false;
+	    out.writeInt(n);
+	    byte[] alleles = vars.alleles();
+	    for (int i = 0;i < n;i++) {
+		out.writeInt(vars.position(i));
+		out.writeInt(vars.deletion(i));
+		out.writeInt(vars.variantBases(i));
+		out.writeInt(Float.floatToIntBits(vars.quality(i)));
+		out.writeInt(vars.paternal(i));
+		out.writeInt(vars.maternal(i));
+		out.writeBoolean(vars.isPhased(i));
+		out.writeInt(vars.paternalLength(i));
+		out.write(alleles,vars.paternalOffset(i),
+			  vars.paternalLength(i));
+		out.writeInt(vars.maternalLength(i));
+		out.write(alleles,vars.maternalOffset(i),
+			  vars.maternalLength(i));
+		unphased |= !vars.isPhased(i);
+	    }
+	    if (unphased) out.writeLong(seed);
+	    out.flush();
+	} catch (IOException ex) { // Not thrown by the stream
+	    System.err.println(ex.toString());
+	}
+	return hex(md.digest());
+    }
+
+    /**
+     * Returns paternal and maternal chains if output files are up to date,
+     * or null if the chromosome must be made. Files with changed time of
+     * modification are read to check their digests.
+     */
+    public String[] lookup(String key,String fingerprint,String[] files)
+    {
+	Entry e = null;
+	synchronized (this) {
+	    e = _entries.get(key);
+	}
+	if (e == null || !e.fingerprint.equals(fingerprint) ||
+	    !Arrays.equals(e.files,files))
+	    return null;
+	try {
+	    long[] times = new long[files.length];
+	    for (int i = 0;i < files.length;i++) {
+		File f = new File(files[i]);
+		times[i] = f.lastModified();
+		if (f.length() != e.sizes[i]) return null;
+		if (times[i] != e.times[i] &&
+		    !digest(f).equals(e.digests[i])) return null;
+	    }
+	    String[] ret = { read(new File(_dir,fingerprint + PAT)),
+			     read(new File(_dir,fingerprint + MAT)) };
+	    // Times of files which were touched are updated, so that they are
+	    // not read again
+	    Entry made = new Entry(key,fingerprint,files,e.sizes,times,
+				   e.digests);
+	    synchronized (this) {
+		_made.put(key,made);
+	    }
+	    return ret;
+	} catch (IOException ex) {
+	    return null;
+	}
+    }
+
+    /**
+     * Stores chains of newly made chromosome. Sizes, times and digests of
+     * its files are recorded when the cache is closed, after they are
+     * written.
+     */
+    public void store(String key,String fingerprint,String[] files,
+		      String[] chains)
+    {
+	try {
+	    write(new File(_dir,fingerprint + PAT),chains[0]);
+	    write(new File(_dir,fingerprint + MAT),chains[1]);
+	} catch (IOException ex) {
+	    System.err.println(ex.toString());
+	    return;
+	}
+	Entry e = new Entry(key,fingerprint,files,new long[files.length],
+			    new long[files.length],new String[files.length]);
+	synchronized (this) {
+	    _made.put(key,e);
+	}
+    }
+
+    /**
+     * Writes manifest and removes chains no longer in it. Must be called
+     * after all output is written. Entries of chromosomes not made in this
+     * run are kept.
+     */
+    public synchronized void close()
+    {
+	Iterator<Entry> it = _made.values().iterator();
+	while (it.hasNext()) {
+	    Entry e = it.next();
+	    for (int i = 0;i < e.files.length;i++) {
+		File f = new File(e.files[i]);
+		if (!f.exists()) { _entries.remove(e.key); e = null; break; }
+		if (e.digests[i] != null) continue; // Checked by lookup
+		e.sizes[i] = f.length();
+		e.times[i] = f.lastModified();
+		try {
+		    e.digests[i] = digest(f);
+		} catch (IOException ex) {
+		    System.err.println(ex.toString());
+		    _entries.remove(e.key);
+		    e = null;
+		    break;
+		}
+	    }
+	    if (e != null) _entries.put(e.key,e);
+	}
+	HashSet<String> used = new HashSet<String>();
+	File tmp = new File(_dir,MANIFEST + ".tmp");
+	try {
+	    BufferedWriter bw = new BufferedWriter(new FileWriter(tmp));
+	    it = _entries.values().iterator();
+	    while (it.hasNext()) {
+		Entry e = it.next();
+		used.add(e.fingerprint + PAT);
+		used.add(e.fingerprint + MAT);
+		bw.write(e.toString());
+		bw.newLine();
+	    }
+	    bw.close();
+	    File manifest = new File(_dir,MANIFEST);
+	    manifest.delete();
+	    if (!tmp.renameTo(manifest))
+		throw new IOException("Can't write " + manifest + ".");
+	} catch (IOException ex) {
+	    System.err.println(ex.toString());
+	    return;
+	}
+	String[] names = _dir.list();
+	for (int i = 0;names != null && i < names.length;i++)
+	    if ((names[i].endsWith(PAT) || names[i].endsWith(MAT)) &&
+		!used.contains(names[i]))
+		new File(_dir,names[i]).delete();
+    }
+
+    private static MessageDigest sha256()
+    {
+	try {
+	    return MessageDigest.getInstance("SHA-256");
+	} catch (NoSuchAlgorithmException ex) { // Required on every platform
+	    throw new RuntimeException(ex);
+	}
+    }
+
+    /**
+     * Returns digest of content of the file.
+     */
+    private static String digest(File file) throws IOException
+    {
+	MessageDigest md = sha256();
+	InputStream in = new FileInputStream(file);
+	try {
+	    byte[] buf = new byte[1 << 16];
+	    int n;
+	    while ((n = in.read(buf)) > 0) md.update(buf,0,n);
+	} finally {
+	    in.close();
+	}
+	return hex(md.digest());
+    }
+
+    private static String hex(byte[] b)
+    {
+	StringBuilder sb = new StringBuilder(2*b.length);
+	for (int i = 0;i < b.length;i++)
+	    sb.append(Character.forDigit((b[i] >> 4) & 0xf,16))
+		.append(Character.forDigit(b[i] & 0xf,16));
+	return sb.toString();
+    }
+
+    private static String read(File file) throws IOException
+    {
+	byte[] b = new byte[(int)file.length()];
+	DataInputStream in = new DataInputStream(new FileInputStream(file));
+	try {
+	    in.readFully(b);
+	} finally {
+	    in.close();
+	}
+	return new String(b);
+    }
+
+    private static void write(File file,String text) throws IOException
+    {
+	OutputStream os = new FileOutputStream(file);
+	try {
+	    os.write(text.getBytes());
+	} finally {
+	    os.close();
+	}
+    }
+
+    /**
+     * Digest of reference bases, computed once for all samples.
+     */
+    public static class Reference
+    {
+	private Sequence _seq    = null;
+	private byte[]   _digest = null;
+
+	public Reference(Sequence seq)
+	{
+	    _seq = seq;
+	}
+
+	public synchronized byte[] digest()
+	{
+	    if (_digest != null) return _digest;
+	    MessageDigest md = sha256();
+	    int len = _seq.length();
+	    byte[] buf = new byte[1 << 16];
+	    for (int p = 0;p < len;p += buf.length) {
+		int n = Math.min(buf.length,len - p);
+		_seq.copy(p,buf,0,n);
+		md.update(buf,0,n);
+	    }
+	    md.update((byte)(len >>> 24));
+	    md.update((byte)(len >>> 16));
+	    md.update((byte)(len >>> 8));
+	    md.update((byte)len);
+	    _digest = md.digest();
+	    _seq    = null;
+	    return _digest;
+	}
+    }
+
+    /**
+     * Manifest line: key, fingerprint and for each output file its name,
+     * size, time of modification and digest, separated by tabs.
+     */
+    private static class Entry
+    {
+	public String   key = null, fingerprint = null;
+	public String[] files = null, digests = null;
+	public long[]   sizes = null, times = null;
+
+	public Entry(String k,String fp,String[] f,long[] s,long[] t,
+		     String[] d)
+	{
+	    key         = k;
+	    fingerprint = fp;
+	    files       = f;
+	    sizes       = s;
+	    times       = t;
+	    digests     = d;
+	}
+
+	public static Entry parse(String line)
+	{
+	    String[] toks = line.split("\t");
+	    if (toks.length < 2 || (toks.length - 2) % 4 != 0) return null;
+	    int n = (toks.length - 2)/4;
+	    String[] files   = new String[n];
+	    long[]   sizes   = new long[n], times = new long[n];
+	    String[] digests = new String[n];
+	    try {
+		for (int i = 0;i < n;i++) {
+		    files[i]   = toks[2 + 4*i];
+		    sizes[i]   = Long.parseLong(toks[3 + 4*i]);
+		    times[i]   = Long.parseLong(toks[4 + 4*i]);
+		    digests[i] = toks[5 + 4*i];
+		}
+	    } catch (NumberFormatException ex) {
+		return null;
+	    }
+	    return new Entry(toks[0],toks[1],files,sizes,times,digests);
+	}
+
+	public String toString()
+	{
+	    StringBuilder sb = new StringBuilder();
+	    sb.append(key).append('\t').append(fingerprint);
+	    for (int i = 0;i < files.length;i++)
+		sb.append('\t').append(files[i]).append('\t').append(sizes[i])
+		    .append('\t').append(times[i]).append('\t')
+		    .append(digests[i]);
+	    return sb.toString();
+	}
+    }
+
+    private static class NullStream extends OutputStream
+    {
+	public void write(int b) { }
+	public void write(byte[] b,int off,int len) { }
+    }
+}
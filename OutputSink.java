@@ -0,0 +1,294 @@
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/**
+ * Output done on a dedicated writer thread. Data written into streams opened
+ * by the sink are passed to the writer thread in chunks through a bounded
+ * queue, so computation can go on while the previous output is written, and
+ * memory held by pending output is limited. Chains are appended to chain
+ * files as soon as all chromosomes before them are done. There is a pair of
+ * chain files for each sample; they are opened for appending only while
+ * chains are written, so that many samples don't hold many open files.
+ * The first error of writing is kept and thrown by close() of the sink and
+ * of streams closed or flushed after it.
+ */
+class OutputSink
+{
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int WRITE = 0, FLUSH = 1, CLOSE = 2, STOP = 3;
+    private static final String EOL = System.getProperty("line.separator");
+
+    private BlockingQueue<Chunk>      _queue   = null;
+    private ConcurrentLinkedQueue<byte[]> _free =
+	new ConcurrentLinkedQueue<byte[]>();
+    private Thread                    _writer  = null;
+    private String[]                  _pat_chains = null, _mat_chains = null;
+    private ArrayList<TreeMap<Integer,String[]>> _pending = null;
+    private int[]                     _next_id = null;
+    private volatile IOException      _error   = null;
+
+    /**
+     * At most capacity chunks of output can wait to be written.
+     */
+    public OutputSink(int capacity,String pat_chain_file,String mat_chain_file)
+	throws IOException
+    {
+	this(capacity,new String[] { pat_chain_file },
+	     new String[] { mat_chain_file });
+    }
+
+    /**
+     * Chain files are given for each sample.
+     */
+    public OutputSink(int capacity,String[] pat_chain_files,
+		      String[] mat_chain_files) throws IOException
+    {
+	int n = pat_chain_files.length;
+	_pat_chains = pat_chain_files;
+	_mat_chains = mat_chain_files;
+	_pending    = new ArrayList<TreeMap<Integer,String[]>>(n);
+	_next_id    = new int[n];
+	for (int i = 0;i < n;i++) {
+	    new FileOutputStream(_pat_chains[i]).close(); // Truncating
+	    new FileOutputStream(_mat_chains[i]).close();
+	    _pending.add(new TreeMap<Integer,String[]>());
+	    _next_id[i] = 1;
+	}
+	// Started last, so that it isn't left running if the files fail
+	_queue = new ArrayBlockingQueue<Chunk>(Math.max(capacity,1));
+	_writer = new Thread(new Runnable() {
+		public void run() { writeChunks(); }
+	    },"output");
+	_writer.setDaemon(true);
+	_writer.start();
+    }
+
+    /**
+     * Opens file for writing through the sink. The stream must be used by
+     * one thread.
+     */
+    public OutputStream open(String file_name) throws IOException
+    {
+	return new SinkStream(new FileOutputStream(file_name));
+    }
+
+    /**
+     * Adds chains with given id. Chains are written in the order of ids, so
+     * they are kept until chains with all smaller ids are added.
+     */
+    public void addChains(int id,String pat,String mat) throws IOException
+    {
+	addChains(0,id,pat,mat);
+    }
+
+    /**
+     * Adds chains of a sample. Ids are counted for each sample separately.
+     */
+    public synchronized void addChains(int sample,int id,String pat,String mat)
+	throws IOException
+    {
+	String[] chains = { pat,mat };
+	TreeMap<Integer,String[]> pending = _pending.get(sample);
+	pending.put(id,chains);
+	while (pending.size() > 0 && pending.firstKey() == _next_id[sample]) {
+	    writeChains(sample,pending.remove(_next_id[sample]));
+	    _next_id[sample]++;
+	}
+    }
+
+    /**
+     * Returns the first error of writing so far, or null.
+     */
+    public IOException error()
+    {
+	return _error;
+    }
+
+    /**
+     * Writes remaining output and waits for writer thread to finish. Throws
+     * the first error of writing, if any.
+     */
+    public void close() throws IOException
+    {
+	try {
+	    synchronized (this) {
+		for (int i = 0;i < _pending.size();i++) {
+		    TreeMap<Integer,String[]> pending = _pending.get(i);
+		    while (pending.size() > 0)
+			writeChains(i,pending.remove(pending.firstKey()));
+		}
+	    }
+	    for (int i = 0;i < _pat_chains.length;i++) {
+		append(_pat_chains[i],EOL);
+		append(_mat_chains[i],EOL);
+	    }
+	} finally { // Writer thread is stopped anyway
+	    put(new Chunk(null,null,0,STOP));
+	    try {
+		_writer.join();
+	    } catch (InterruptedException ex) {
+		throw new InterruptedIOException();
+	    }
+	}
+	if (_error != null) throw _error;
+    }
+
+    private void writeChains(int sample,String[] chains) throws IOException
+    {
+	append(_pat_chains[sample],chains[0]);
+	append(_mat_chains[sample],chains[1]);
+    }
+
+    /**
+     * Appends text to file. Appending is done by the writer thread in the
+     * order of chunks, so it goes after whatever was written before.
+     */
+    private void append(String file_name,String text) throws IOException
+    {
+	if (text.length() == 0) return;
+	OutputStream os = new SinkStream(new FileOutputStream(file_name,true));
+	os.write(text.getBytes());
+	os.close();
+    }
+
+    private void put(Chunk chunk) throws IOException
+    {
+	try {
+	    _queue.put(chunk);
+	} catch (InterruptedException ex) {
+	    throw new InterruptedIOException();
+	}
+    }
+
+    private byte[] buffer()
+    {
+	byte[] ret = _free.poll();
+	return (ret == null) ? new byte[CHUNK_SIZE] : ret;
+    }
+
+    /**
+     * Body of the writer thread.
+     */
+    private void writeChunks()
+    {
+	Set<OutputStream> failed =
+	    Collections.newSetFromMap(new IdentityHashMap<OutputStream,
+				      Boolean>());
+	long nanos = 0,n_ops = 0,n_bytes = 0;
+	while (true) {
+	    Chunk chunk = null;
+	    try {
+		chunk = _queue.take();
+	    } catch (InterruptedException ex) {
+		break;
+	    }
+	    if (chunk.op == STOP) break;
+	    long start = System.nanoTime();
+	    if (chunk.op == WRITE) n_bytes += chunk.len;
+	    n_ops++;
+	    // Target which failed is closed at once and its chunks are skipped
+	    // up to its close
+	    if (failed.contains(chunk.target)) {
+		if (chunk.op == CLOSE) failed.remove(chunk.target);
+	    } else
+		try {
+		    if      (chunk.op == WRITE)
+			chunk.target.write(chunk.data,0,chunk.len);
+		    else if (chunk.op == FLUSH) chunk.target.flush();
+		    else if (chunk.op == CLOSE) chunk.target.close();
+		} catch (IOException ex) {
+		    System.err.println(ex.toString());
+		    if (_error == null) _error = ex;
+		    if (chunk.op != CLOSE) {
+			failed.add(chunk.target);
+			try {
+			    chunk.target.close();
+			} catch (IOException e) { }
+		    }
+		}
+	    nanos += System.nanoTime() - start;
+	    if (chunk.data != null) _free.offer(chunk.data);
+	}
+	Metrics.add(Metrics.OUTPUT_IO,nanos,n_ops);
+	Metrics.count("output.bytes_written",n_bytes);
+    }
+
+    private static class Chunk
+    {
+	public OutputStream target = null;
+	public byte[]       data   = null;
+	public int          len    = 0, op = WRITE;
+
+	public Chunk(OutputStream t,byte[] d,int l,int o)
+	{
+	    target = t;
+	    data   = d;
+	    len    = l;
+	    op     = o;
+	}
+    }
+
+    /**
+     * Stream collecting data into chunks for the writer thread.
+     */
+    private class SinkStream extends OutputStream
+    {
+	private OutputStream _target = null;
+	private byte[]       _buf    = null;
+	private int          _n      = 0;
+
+	public SinkStream(OutputStream target)
+	{
+	    _target = target;
+	}
+
+	public void write(int b) throws IOException
+	{
+	    if (_buf == null) _buf = buffer();
+	    _buf[_n++] = (byte)b;
+	    if (_n == _buf.length) send();
+	}
+
+	public void write(byte[] b,int off,int len) throws IOException
+	{
+	    while (len > 0) {
+		if (_buf == null) _buf = buffer();
+		int n = Math.min(_buf.length - _n,len);
+		System.arraycopy(b,off,_buf,_n,n);
+		_n  += n;
+		off += n;
+		len -= n;
+		if (_n == _buf.length) send();
+	    }
+	}
+
+	/**
+	 * Passes collected data to the writer thread, which flushes them.
+	 */
+	public void flush() throws IOException
+	{
+	    send();
+	    put(new Chunk(_target,null,0,FLUSH));
+	    if (_error != null) throw _error;
+	}
+
+	public void close() throws IOException
+	{
+	    if (_target == null) return;
+	    send();
+	    put(new Chunk(_target,null,0,CLOSE));
+	    _target = null;
+	    if (_error != null) throw _error;
+	}
+
+	private void send() throws IOException
+	{
+	    if (_buf == null || _n == 0) return;
+	    put(new Chunk(_target,_buf,_n,WRITE));
+	    _buf = null;
+	    _n   = 0;
+	}
+    }
+}
@@ -0,0 +1,101 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Haplotype of a chromosome made from the reference by substitutions and
+ * deletions, packed in 2 bits per base. Substituted bases that can't be
+ * packed in place are kept aside. Deleted bases are kept as runs, and are
+ * not marked in the sequence itself, i.e., they are decoded as they were.
+ * Insertions are kept elsewhere.
+ */
+class PackedHaplotype extends PackedSequence
+{
+    private TreeMap<Integer,Byte> _other = new TreeMap<Integer,Byte>();
+    private int[] _del_s = new int[16], _del_e = new int[16]; // [s,e)
+    private int   _n_del = 0;
+
+    /**
+     * Haplotype same as the sequence.
+     */
+    public PackedHaplotype(Sequence seq)
+    {
+	super(seq);
+	if (seq instanceof PackedHaplotype) {
+	    PackedHaplotype h = (PackedHaplotype)seq;
+	    _other.putAll(h._other);
+	    _del_s = Arrays.copyOf(h._del_s,Math.max(h._n_del,16));
+	    _del_e = Arrays.copyOf(h._del_e,Math.max(h._n_del,16));
+	    _n_del = h._n_del;
+	}
+    }
+
+    public byte byteAt(int p)
+    {
+	Byte b = _other.get(p);
+	return (b != null) ? b : super.byteAt(p);
+    }
+
+    public void copy(int from,byte[] dst,int off,int len)
+    {
+	super.copy(from,dst,off,len);
+	if (_other.size() == 0) return;
+	for (Map.Entry<Integer,Byte> e :
+		 _other.subMap(from,from + len).entrySet())
+	    dst[off + e.getKey() - from] = e.getValue();
+    }
+
+    /**
+     * Substitutes base at the position.
+     */
+    public void substitute(int p,byte b)
+    {
+	if (set(p,b)) _other.remove(p);
+	else          _other.put(p,b);
+    }
+
+    /**
+     * Deletes n bases starting from the position. Deletions are expected in
+     * the order of positions, but may come in any order.
+     */
+    public void delete(int p,int n)
+    {
+	if (n <= 0) return;
+	int s = p, e = p + n;
+	int i = first(_del_e,_n_del,s - 1); // First run that ends at s or later
+	int j = i;
+	while (j < _n_del && _del_s[j] <= e) { // Merging touching runs
+	    s = Math.min(s,_del_s[j]);
+	    e = Math.max(e,_del_e[j]);
+	    j++;
+	}
+	if (j == i && _n_del == _del_s.length) {
+	    _del_s = Arrays.copyOf(_del_s,2*_n_del);
+	    _del_e = Arrays.copyOf(_del_e,2*_n_del);
+	}
+	int shift = 1 - (j - i); // Change in number of runs
+	if (shift != 0) {
+	    System.arraycopy(_del_s,j,_del_s,i + 1,_n_del - j);
+	    System.arraycopy(_del_e,j,_del_e,i + 1,_n_del - j);
+	}
+	_del_s[i] = s;
+	_del_e[i] = e;
+	_n_del += shift;
+    }
+
+    public boolean isDeleted(int p)
+    {
+	int i = first(_del_e,_n_del,p);
+	return i < _n_del && _del_s[i] <= p;
+    }
+
+    /**
+     * Returns the first position after p where bases change from present
+     * to deleted or back, or length of the sequence.
+     */
+    public int nextBoundary(int p)
+    {
+	int i = first(_del_e,_n_del,p);
+	if (i == _n_del) return length();
+	return (_del_s[i] <= p) ? _del_e[i] : _del_s[i];
+    }
+}
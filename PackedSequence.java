@@ -0,0 +1,181 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Sequence packed in 2 bits per base. Bases other than A, C, G and T (e.g.,
+ * N) and soft-masked (lower case) bases are kept in side tables of runs, so
+ * that the sequence is decoded exactly as it was given. Most genomes take
+ * about a quarter of the memory of one byte per base.
+ */
+class PackedSequence extends Sequence
+{
+    private static final byte[] BASES = { 'A','C','G','T' };
+    private static final byte[] CODES = new byte[256];
+    private static final int    CHUNK = 1 << 16;
+
+    static {
+	Arrays.fill(CODES,(byte)-1);
+	for (int i = 0;i < BASES.length;i++) CODES[BASES[i]] = (byte)i;
+    }
+
+    protected long[] _codes  = null; // 32 bases per word
+    private   int    _length = 0;
+    private   int[]  _exc_s  = new int[4], _exc_e = new int[4]; // [s,e)
+    private   byte[] _exc_b  = new byte[4];
+    private   int    _n_exc  = 0;
+    private   int[]  _low_s  = new int[4], _low_e = new int[4]; // [s,e)
+    private   int    _n_low  = 0;
+
+    /**
+     * Packs the sequence. Packed sequence is copied; side tables are shared
+     * as they are not changed.
+     */
+    public PackedSequence(Sequence seq)
+    {
+	super(seq.getHeader());
+	_length = seq.length();
+	if (seq instanceof PackedSequence) {
+	    PackedSequence ps = (PackedSequence)seq;
+	    _codes = ps._codes.clone();
+	    _exc_s = ps._exc_s; _exc_e = ps._exc_e; _exc_b = ps._exc_b;
+	    _n_exc = ps._n_exc;
+	    _low_s = ps._low_s; _low_e = ps._low_e;
+	    _n_low = ps._n_low;
+	    return;
+	}
+	_codes = new long[(_length + 31) >>> 5];
+	byte[] buf = new byte[CHUNK];
+	long word = 0;
+	for (int start = 0;start < _length;start += CHUNK) {
+	    int n = Math.min(CHUNK,_length - start);
+	    seq.copy(start,buf,0,n);
+	    for (int i = 0;i < n;i++) {
+		int p = start + i, v = buf[i] & 0xff, code = CODES[v];
+		if (code < 0) code = pack(p,v);
+		word |= (long)code << ((p & 31) << 1);
+		if ((p & 31) == 31) {
+		    _codes[p >>> 5] = word;
+		    word = 0;
+		}
+	    }
+	}
+	if ((_length & 31) != 0) _codes[_length >>> 5] = word;
+	_exc_s = Arrays.copyOf(_exc_s,_n_exc);
+	_exc_e = Arrays.copyOf(_exc_e,_n_exc);
+	_exc_b = Arrays.copyOf(_exc_b,_n_exc);
+	_low_s = Arrays.copyOf(_low_s,_n_low);
+	_low_e = Arrays.copyOf(_low_e,_n_low);
+    }
+
+    public int length() { return _length; }
+
+    public byte byteAt(int p)
+    {
+	byte ret = BASES[(int)(_codes[p >>> 5] >>> ((p & 31) << 1)) & 3];
+	int i = first(_exc_e,_n_exc,p);
+	if (i < _n_exc && _exc_s[i] <= p) ret = _exc_b[i];
+	if (isLower(p)) ret += 32;
+	return ret;
+    }
+
+    public void copy(int from,byte[] dst,int off,int len)
+    {
+	int end = from + len;
+	for (int p = from,o = off;p < end;) {
+	    long w = _codes[p >>> 5] >>> ((p & 31) << 1);
+	    int  n = Math.min(32 - (p & 31),end - p);
+	    for (int k = 0;k < n;k++,w >>>= 2) dst[o++] = BASES[(int)w & 3];
+	    p += n;
+	}
+	for (int i = first(_exc_e,_n_exc,from);
+	     i < _n_exc && _exc_s[i] < end;i++) {
+	    int s = Math.max(_exc_s[i],from), e = Math.min(_exc_e[i],end);
+	    Arrays.fill(dst,off + s - from,off + e - from,_exc_b[i]);
+	}
+	for (int i = first(_low_e,_n_low,from);
+	     i < _n_low && _low_s[i] < end;i++) {
+	    int s = Math.max(_low_s[i],from), e = Math.min(_low_e[i],end);
+	    for (int k = off + s - from;k < off + e - from;k++) dst[k] += 32;
+	}
+    }
+
+    /**
+     * Sets base, if it can be packed in place, i.e., it is A, C, G or T of
+     * the same case as the base at the position. Returns false otherwise.
+     */
+    protected boolean set(int p,byte b)
+    {
+	int v = b & 0xff;
+	boolean low = v >= 'a' && v <= 'z';
+	int code = CODES[low ? v - 32 : v];
+	if (code < 0 || low != isLower(p)) return false;
+	int i = first(_exc_e,_n_exc,p);
+	if (i < _n_exc && _exc_s[i] <= p) return false;
+	int shift = (p & 31) << 1;
+	_codes[p >>> 5] = (_codes[p >>> 5] & ~(3L << shift)) |
+	    ((long)code << shift);
+	return true;
+    }
+
+    private boolean isLower(int p)
+    {
+	int i = first(_low_e,_n_low,p);
+	return i < _n_low && _low_s[i] <= p;
+    }
+
+    /**
+     * Adds base other than upper case A, C, G or T to side tables. Returns
+     * its code, which is 0 for bases in the table of other bases.
+     */
+    private int pack(int p,int v)
+    {
+	boolean low = v >= 'a' && v <= 'z';
+	if (low) v -= 32;
+	int code = CODES[v];
+	if (code < 0) {
+	    code = 0;
+	    if (_n_exc > 0 && _exc_e[_n_exc - 1] == p &&
+		_exc_b[_n_exc - 1] == (byte)v)
+		_exc_e[_n_exc - 1]++;
+	    else {
+		if (_n_exc == _exc_s.length) {
+		    _exc_s = Arrays.copyOf(_exc_s,2*_n_exc);
+		    _exc_e = Arrays.copyOf(_exc_e,2*_n_exc);
+		    _exc_b = Arrays.copyOf(_exc_b,2*_n_exc);
+		}
+		_exc_s[_n_exc] = p;
+		_exc_e[_n_exc] = p + 1;
+		_exc_b[_n_exc] = (byte)v;
+		_n_exc++;
+	    }
+	}
+	if (!low) return code;
+	if (_n_low > 0 && _low_e[_n_low - 1] == p) {
+	    _low_e[_n_low - 1]++;
+	    return code;
+	}
+	if (_n_low == _low_s.length) {
+	    _low_s = Arrays.copyOf(_low_s,2*_n_low);
+	    _low_e = Arrays.copyOf(_low_e,2*_n_low);
+	}
+	_low_s[_n_low] = p;
+	_low_e[_n_low] = p + 1;
+	_n_low++;
+	return code;
+    }
+
+    /**
+     * Returns index of the first of sorted disjoint runs that ends after
+     * the position, or n if there is none.
+     */
+    protected static int first(int[] ends,int n,int p)
+    {
+	int lo = 0, hi = n;
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (ends[mid] > p) hi = mid;
+	    else               lo = mid + 1;
+	}
+	return lo;
+    }
+}
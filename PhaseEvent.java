@@ -0,0 +1,19 @@
+//--- Java imports ---
+import jdk.jfr.*;
+
+/**
+ * JFR event for a phase of the run (parsing of VCF file, loading of
+ * chromosome, making and writing of haplotypes), so that phases can be
+ * seen along with GC and allocation in a flight recording.
+ */
+@Name("vcf2diploid.Phase")
+@Label("vcf2diploid Phase")
+@Category("vcf2diploid")
+class PhaseEvent extends Event
+{
+    @Label("Phase")
+    String phase;
+
+    @Label("Target")
+    String target;
+}
@@ -0,0 +1,119 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Region of a chromosome given as chr, chr:beg or chr:beg-end. Positions
+ * are 1-based and inclusive. The chromosome is registered in the contig
+ * dictionary.
+ */
+class Region
+{
+    private String _name = "";
+    private int    _chr  = -1;
+    private int    _beg  = 1, _end = Integer.MAX_VALUE;
+
+    public Region(String name,int beg,int end)
+    {
+	_name = name;
+	_chr  = ContigDictionary.add(name);
+	_beg  = Math.max(beg,1);
+	_end  = end;
+    }
+
+    /**
+     * Returns region or null if the string is not a region.
+     */
+    public static Region parse(String str)
+    {
+	int colon = str.lastIndexOf(':');
+	if (colon < 0) return new Region(str,1,Integer.MAX_VALUE);
+	String name = str.substring(0,colon);
+	String range = str.substring(colon + 1).replace(",","");
+	try {
+	    int dash = range.indexOf('-');
+	    if (dash < 0)
+		return new Region(name,Integer.parseInt(range),
+				  Integer.MAX_VALUE);
+	    int beg = Integer.parseInt(range.substring(0,dash));
+	    int end = (dash + 1 == range.length()) ? Integer.MAX_VALUE :
+		Integer.parseInt(range.substring(dash + 1));
+	    if (name.length() == 0 || beg > end) return null;
+	    return new Region(name,beg,end);
+	} catch (NumberFormatException ex) { // Colon is part of the name
+	    return new Region(str,1,Integer.MAX_VALUE);
+	}
+    }
+
+    public String name()       { return _name; }
+    public int    chromosome() { return _chr; }
+    public int    begin()      { return _beg; }
+    public int    end()        { return _end; }
+
+    /**
+     * Returns regions by index of chromosome, sorted and merged where they
+     * overlap or touch. Chromosomes without regions have null.
+     */
+    public static Region[][] byChromosome(ArrayList<Region> regions)
+    {
+	int n = 0;
+	for (int i = 0;i < regions.size();i++)
+	    n = Math.max(n,regions.get(i)._chr + 1);
+	ArrayList<ArrayList<Region>> lists = new ArrayList<ArrayList<Region>>();
+	for (int c = 0;c < n;c++) lists.add(null);
+	for (int i = 0;i < regions.size();i++) {
+	    Region r = regions.get(i);
+	    if (r._chr < 0) continue;
+	    if (lists.get(r._chr) == null)
+		lists.set(r._chr,new ArrayList<Region>());
+	    lists.get(r._chr).add(r);
+	}
+	Region[][] ret = new Region[n][];
+	for (int c = 0;c < n;c++) {
+	    ArrayList<Region> list = lists.get(c);
+	    if (list == null) continue;
+	    Collections.sort(list,new Comparator<Region>() {
+		    public int compare(Region a,Region b) {
+			return Integer.compare(a._beg,b._beg);
+		    }
+		});
+	    ArrayList<Region> merged = new ArrayList<Region>();
+	    Region last = null;
+	    for (int i = 0;i < list.size();i++) {
+		Region r = list.get(i);
+		if (last != null && r._beg <= (long)last._end + 1) {
+		    if (r._end > last._end)
+			merged.set(merged.size() - 1,last =
+				   new Region(last._name,last._beg,r._end));
+		} else merged.add(last = r);
+	    }
+	    ret[c] = merged.toArray(new Region[0]);
+	}
+	return ret;
+    }
+
+    /**
+     * Tells whether [pos,pos + len) of chromosome overlaps any of regions
+     * given by byChromosome(). Only regions of the chromosome are searched.
+     */
+    public static boolean overlaps(Region[][] regions,int chr,int pos,int len)
+    {
+	if (chr < 0 || chr >= regions.length || regions[chr] == null)
+	    return false;
+	Region[] rs = regions[chr];
+	long last = (long)pos + Math.max(len,1) - 1;
+	int lo = 0, hi = rs.length; // First region ending at or after pos
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (rs[mid]._end < pos) lo = mid + 1;
+	    else                    hi = mid;
+	}
+	return lo < rs.length && last >= rs[lo]._beg;
+    }
+
+    public String toString()
+    {
+	if (_beg == 1 && _end == Integer.MAX_VALUE) return _name;
+	if (_end == Integer.MAX_VALUE) return _name + ":" + _beg;
+	return _name + ":" + _beg + "-" + _end;
+    }
+}
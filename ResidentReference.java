@@ -0,0 +1,39 @@
+/**
+ * Reference sequences of FASTA files loaded once and shared read-only, e.g.,
+ * by jobs of the server. Sequences of indexed files are mapped into memory,
+ * others are read and kept packed. Empty sequences of indexed files are
+ * null, as they are skipped.
+ */
+class ResidentReference
+{
+    private String[]     _files  = null;
+    private Sequence[][] _seqs   = null;
+    private long         _max_len = 0, _n_bases = 0;
+
+    public ResidentReference(String[] files)
+    {
+	_files = files;
+	_seqs  = new Sequence[files.length][];
+	for (int f = 0;f < files.length;f++) {
+	    FastaIndex fai = FastaIndex.load(files[f]);
+	    if (fai == null) _seqs[f] = new FastaReader(files[f]).readAll();
+	    else {
+		_seqs[f] = new Sequence[fai.size()];
+		for (int s = 0;s < fai.size();s++)
+		    if (fai.entry(s).length > 0)
+			_seqs[f][s] = fai.sequence(fai.entry(s));
+	    }
+	    for (int s = 0;s < _seqs[f].length;s++) {
+		if (_seqs[f][s] == null) continue;
+		int len = _seqs[f][s].length();
+		_max_len  = Math.max(_max_len,len);
+		_n_bases += len;
+	    }
+	}
+    }
+
+    public String[]   files()           { return _files; }
+    public Sequence[] sequences(int f)  { return _seqs[f]; }
+    public long       maxLength()       { return _max_len; }
+    public long       totalBases()      { return _n_bases; }
+}
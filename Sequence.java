@@ -0,0 +1,45 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Reference sequence loaded from FASTA file. Name of the sequence is the
+ * first word of the header.
+ */
+class Sequence
+{
+    private String _header = "",_name = "";
+    private byte[] _seq = null;
+
+    /**
+     * The array is used as is, i.e., it is not copied.
+     */
+    public Sequence(String header,byte[] seq)
+    {
+	this(header);
+	_seq = (seq == null) ? new byte[0] : seq;
+    }
+
+    /**
+     * For sequences that keep bases elsewhere.
+     */
+    protected Sequence(String header)
+    {
+	_header = header;
+	String tmp = header.startsWith(">") ? header.substring(1) : header;
+	StringTokenizer toks = new StringTokenizer(tmp);
+	if (toks.hasMoreTokens()) _name = toks.nextToken();
+    }
+
+    public String getName()     { return _name; }
+    public String getHeader()   { return _header; }
+    public int    length()      { return _seq.length; }
+    public byte   byteAt(int p) { return _seq[p]; }
+
+    /**
+     * Copies len bases starting from position from into dst.
+     */
+    public void copy(int from,byte[] dst,int off,int len)
+    {
+	System.arraycopy(_seq,from,dst,off,len);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Splittable pseudo-random numbers based on SplitMix64. A generator split
+ * off by a key, and a number drawn for a key, depend only on the seed and the
+ * key. So numbers drawn for a chromosome don't depend on the order in which
+ * chromosomes are processed or on the number of threads. Instances are
+ * immutable and can be shared between threads.
+ */
+final class SplitRandom
+{
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+
+    private final long _seed;
+
+    public SplitRandom(long seed)
+    {
+	_seed = seed;
+    }
+
+    public long seed() { return _seed; }
+
+    /**
+     * Returns generator for the key, e.g., for a chromosome.
+     */
+    public SplitRandom split(long key)
+    {
+	return new SplitRandom(nextLong(key));
+    }
+
+    public SplitRandom split(String key)
+    {
+	long h = mix(_seed ^ key.length());
+	for (int i = 0;i < key.length();i++)
+	    h = mix(h + GOLDEN*(key.charAt(i) + 1));
+	return new SplitRandom(h);
+    }
+
+    /**
+     * Returns uniformly distributed number for the key.
+     */
+    public long nextLong(long key)
+    {
+	return mix(_seed + GOLDEN*mix(key + GOLDEN));
+    }
+
+    /**
+     * Returns true or false with probability one half for the key.
+     */
+    public boolean nextBoolean(long key)
+    {
+	return nextLong(key) < 0;
+    }
+
+    private static long mix(long z)
+    {
+	z = (z ^ (z >>> 30))*0xbf58476d1ce4e5b9L;
+	z = (z ^ (z >>> 27))*0x94d049bb133111ebL;
+	return z ^ (z >>> 31);
+    }
+}
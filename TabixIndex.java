@@ -0,0 +1,186 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+
+/**
+ * Tabix (.tbi) or CSI (.csi) index of bgzipped VCF file. The index gives
+ * chunks of the file, as pairs of BGZF virtual offsets, that contain records
+ * overlapping a region.
+ */
+class TabixIndex
+{
+    private int _min_shift = 14, _depth = 5;
+    private ArrayList<String>            _names = new ArrayList<String>();
+    private ArrayList<Map<Integer,long[]>> _bins =
+	new ArrayList<Map<Integer,long[]>>();
+    private ArrayList<long[]>            _linear = new ArrayList<long[]>();
+    private long _first = Long.MAX_VALUE; // Offset of the first record
+
+    /**
+     * Returns index for the VCF file or null if there is none.
+     */
+    public static TabixIndex load(String fileName)
+    {
+	String[] exts = { ".tbi",".csi" };
+	for (int i = 0;i < exts.length;i++) {
+	    File file = new File(fileName + exts[i]);
+	    if (!file.exists()) continue;
+	    try {
+		InputStream is = BgzfInputStream.open
+		    (new BufferedInputStream(new FileInputStream(file)),1);
+		TabixIndex ret = new TabixIndex();
+		ret.read(new DataInputStream(is),i == 1);
+		is.close();
+		return ret;
+	    } catch (Exception ex) {
+		System.err.println("Can't read index " + file.getPath() + ".");
+		System.err.println(ex.toString());
+	    }
+	}
+	return null;
+    }
+
+    public int    size()       { return _names.size(); }
+    public String name(int i)  { return _names.get(i); }
+
+    /**
+     * Virtual offset of the first record, i.e., where the header ends.
+     */
+    public long firstOffset() { return (_first == Long.MAX_VALUE) ? 0 : _first; }
+
+    /**
+     * Returns sorted and merged chunks that can contain records of i-th
+     * sequence overlapping region [beg,end) (0-based). Chunk is a pair of
+     * virtual offsets: start and end.
+     */
+    public ArrayList<long[]> query(int i,int beg,int end)
+    {
+	ArrayList<long[]> chunks = new ArrayList<long[]>();
+	long max = 1L << (_min_shift + 3*_depth);
+	if (beg < 0) beg = 0;
+	if (end > max || end <= 0) end = (int)Math.min(max,Integer.MAX_VALUE);
+	if (beg >= end) return chunks;
+
+	long min_off = 0;
+	long[] lin = _linear.get(i);
+	if (lin.length > 0)
+	    min_off = lin[Math.min(beg >> _min_shift,lin.length - 1)];
+
+	// Bins overlapping the region on each level, as in CSI specification
+	Map<Integer,long[]> bins = _bins.get(i);
+	int s = _min_shift + 3*_depth, t = 0;
+	for (int l = 0;l <= _depth;l++) {
+	    int b = t + (int)((long)beg >> s);
+	    int e = t + (int)((long)(end - 1) >> s);
+	    for (int bin = b;bin <= e;bin++) {
+		long[] c = bins.get(bin);
+		if (c == null) continue;
+		for (int k = 0;k < c.length;k += 2)
+		    if (c[k + 1] > min_off) {
+			long[] chunk = { c[k],c[k + 1] };
+			chunks.add(chunk);
+		    }
+	    }
+	    s -= 3;
+	    t += 1 << (3*l);
+	}
+	return merge(chunks);
+    }
+
+    /**
+     * Sorts chunks and merges overlapping ones.
+     */
+    public static ArrayList<long[]> merge(ArrayList<long[]> chunks)
+    {
+	Collections.sort(chunks,new Comparator<long[]>() {
+		public int compare(long[] a,long[] b) {
+		    return (a[0] < b[0]) ? -1 : ((a[0] > b[0]) ? 1 : 0);
+		}
+	    });
+	ArrayList<long[]> ret = new ArrayList<long[]>();
+	for (int k = 0;k < chunks.size();k++) {
+	    long[] c = chunks.get(k);
+	    if (ret.size() > 0 && ret.get(ret.size() - 1)[1] >= c[0]) {
+		long[] last = ret.get(ret.size() - 1);
+		last[1] = Math.max(last[1],c[1]);
+	    } else ret.add(c);
+	}
+	return ret;
+    }
+
+    private void read(DataInputStream in,boolean csi) throws IOException
+    {
+	byte[] magic = new byte[4];
+	in.readFully(magic);
+	String m = new String(magic,0,3);
+	if (!m.equals(csi ? "CSI" : "TBI") || magic[3] != 1)
+	    throw new IOException("Wrong magic.");
+
+	int n_ref = 0;
+	byte[] names = null;
+	if (csi) {
+	    _min_shift = readInt(in);
+	    _depth     = readInt(in);
+	    int l_aux  = readInt(in);
+	    byte[] aux = new byte[l_aux];
+	    in.readFully(aux);
+	    if (l_aux >= 28) {
+		int l_nm = getInt(aux,24);
+		names = Arrays.copyOfRange(aux,28,28 + l_nm);
+	    }
+	    n_ref = readInt(in);
+	} else {
+	    n_ref = readInt(in);
+	    for (int i = 0;i < 6;i++) readInt(in); // format, columns, meta, skip
+	    names = new byte[readInt(in)];
+	    in.readFully(names);
+	}
+	if (names != null)
+	    for (int s = 0,i = 0;i < names.length;i++)
+		if (names[i] == 0) {
+		    _names.add(new String(names,s,i - s));
+		    s = i + 1;
+		}
+
+	for (int r = 0;r < n_ref;r++) {
+	    Map<Integer,long[]> bins = new HashMap<Integer,long[]>();
+	    int n_bin = readInt(in);
+	    for (int b = 0;b < n_bin;b++) {
+		int bin = readInt(in);
+		if (csi) readLong(in); // loffset
+		int n_chunk = readInt(in);
+		long[] chunks = new long[2*n_chunk];
+		for (int c = 0;c < 2*n_chunk;c++) chunks[c] = readLong(in);
+		// Pseudo-bin with statistics is not a chunk list
+		if (bin == ((1 << (3*_depth + 3)) - 1)/7 + 1) continue;
+		for (int c = 0;c < 2*n_chunk;c += 2)
+		    _first = Math.min(_first,chunks[c]);
+		bins.put(bin,chunks);
+	    }
+	    long[] lin = new long[0];
+	    if (!csi) {
+		lin = new long[readInt(in)];
+		for (int k = 0;k < lin.length;k++) lin[k] = readLong(in);
+	    }
+	    _bins.add(bins);
+	    _linear.add(lin);
+	}
+	while (_names.size() < n_ref) _names.add("");
+    }
+
+    private static int readInt(DataInputStream in) throws IOException
+    {
+	return Integer.reverseBytes(in.readInt());
+    }
+
+    private static long readLong(DataInputStream in) throws IOException
+    {
+	return Long.reverseBytes(in.readLong());
+    }
+
+    private static int getInt(byte[] b,int off)
+    {
+	return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) |
+	    ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+    }
+}
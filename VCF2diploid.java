@@ -1,5 +1,6 @@
 //--- Java imports ---
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 import java.lang.reflect.*;
 
@@ -11,468 +12,818 @@ import java.lang.reflect.*;
  */
 public class VCF2diploid
 {
-    private final static char DELETED_BASE = '~';
+    final static String VERSION = "vcf2diploid - v0.2.6";
 
     private String[] _chrFiles = null, _vcfFiles = null;
-    private String   _id = "";
-    private ArrayList<Variant>[] _variants = new ArrayList[86];
+    private String[] _ids = { "" };
+    private boolean  _pass = false;
+    private VariantSorter _sorter = null;
+    private long     _buffer  = 5000000;
+    private File     _tmp     = null;
+    private int      _threads = 1;
+    private boolean  _stream  = false;
+    private int      _width   = FastaWriter.DEFAULT_WIDTH;
+    private boolean  _bgzip   = false;
+    private ArrayList<Region> _regions = null;
+    private Region[][] _region_index = null; // By chr
+    private int      _policy  = ConflictResolver.FIRST;
+    private OutputSink _sink  = null;
+    private String   _report  = null;
+    private SplitRandom _random = new SplitRandom(new Random().nextLong());
+    private File     _cache_dir = null;
+    private OutputCache _cache = null;
+    private String   _out     = null;
+    private boolean  _text_map = true, _binary_map = false;
+    private String[] _annotations = null;
+    private ArrayList<LiftOver> _lifts = null;
+    private ResidentReference _reference = null;
+    private volatile Throwable _failure = null; // First error of the run
 	
     public VCF2diploid(String[] chrFiles,String[] vcfFiles,
 		       String id,boolean pass)
+    {
+	this(chrFiles,vcfFiles,new String[] { (id == null) ? "" : id },pass);
+    }
+
+    /**
+     * Genomes for several samples are made at once: VCF files are parsed
+     * once for all of them, and each reference chromosome is loaded once.
+     * With more than one sample, output of each goes into directory named
+     * by its id.
+     */
+    public VCF2diploid(String[] chrFiles,String[] vcfFiles,
+		       String[] ids,boolean pass)
     {
 	_chrFiles = chrFiles;
 	_vcfFiles = vcfFiles;
-	if (id != null) _id = id;
-
-	for (int i = 0;i < _variants.length;i++)
-	    _variants[i] = new ArrayList<Variant>(128);
-
-	for (int i = 0;i < vcfFiles.length;i++) {
-	    VCFparser parser = new VCFparser(vcfFiles[i],_id,pass);
-	    int n_ev = 0,var_nucs = 0;
-	    while (parser.hasMoreInput()) {
-	    	Variant var = parser.parseLine();
-	    	if (var == null) continue;
-		if (var.maternal() == 0 &&
-		    var.paternal() == 0) continue;
-	    	int chr = var.chromosome();
-	    	if (chr <= 0 || chr > _variants.length) continue;
-	    	_variants[chr - 1].add(var);
-		n_ev++;
-		var_nucs += var.variantBases();
+	_ids      = ids;
+	_pass     = pass;
+    }
+
+    /**
+     * Reads variants from VCF files. Done before making diploid genome, so
+     * that settings given after construction apply to reading as well.
+     */
+    private void readVariants()
+    {
+	// Registers chromosomes in FASTA files
+	ArrayList<Region> contigs = fastaContigs();
+	_sorter = new VariantSorter(_ids.length,_buffer,_tmp);
+	for (int i = 0;i < _vcfFiles.length;i++) {
+	    // Indexed file is read only for the regions or, if none is given,
+	    // for the chromosomes in FASTA files
+	    ArrayList<Region> reads = _regions;
+	    if (reads == null && isIndexed(_vcfFiles[i])) reads = contigs;
+	    Metrics.Timer timer = Metrics.start(Metrics.VCF_PARSE,_vcfFiles[i]);
+	    VCFparser parser = new VCFparser(_vcfFiles[i],_ids,_pass,_threads,
+					     _regions,reads);
+	    long n_ev = -_sorter.size(),var_nucs = -_sorter.totalBases();
+	    try {
+		while (parser.hasMoreInput()) {
+		    _sorter.added(parser.parseLine(_sorter.stores()));
+		}
+	    } catch (IOException ex) {
+		failed(ex);
 	    }
-	    System.out.println(vcfFiles[i] + ": " + n_ev + " variants, " +
+	    n_ev     += _sorter.size();
+	    var_nucs += _sorter.totalBases();
+	    timer.stop();
+	    Metrics.count("variants.read",n_ev);
+	    Metrics.count("variants.read_bases",var_nucs);
+	    System.out.println(_vcfFiles[i] + ": " + n_ev + " variants, " +
 			       var_nucs + " variant bases");
 	}
+    }
 
-	// for (int i = 0;i < _variants.length;i++)
-	//     System.out.println((i + 1) + " " + _variants[i].size());
+    /**
+     * Sets number of worker threads used to construct chromosomes and to
+     * decompress bgzipped VCF files. Output is the same regardless of the
+     * number of threads.
+     */
+    public void setThreads(int threads)
+    {
+	_threads = (threads < 1) ? 1 : threads;
     }
 
-    public void makeDiploid()
+    /**
+     * Sets whether haplotypes are kept as edits to the reference and written
+     * in one walk along it instead of being made as full copies.
+     */
+    public void setStreaming(boolean stream)
     {
-	StringBuffer paternal_chains = new StringBuffer("");
-	StringBuffer maternal_chains = new StringBuffer("");
-	int chain_id = 1;
-	for (int f = 0;f < _chrFiles.length;f++) {
-	    // System.gc();
-	    // System.out.println("Before parsing sequence.");
-	    // System.out.println("Used memory = " +
-	    // 		       (Runtime.getRuntime().totalMemory() -
-	    // 			Runtime.getRuntime().freeMemory()));
-	    Sequence[] seqs = parseSequences(_chrFiles[f]);
-	    // System.gc();
-	    // System.out.println("After parsing sequence.");
-	    // System.out.println("Used memory = " +
-	    // 		       (Runtime.getRuntime().totalMemory() -
-	    // 			Runtime.getRuntime().freeMemory()));
-	    for (int s = 0;s < seqs.length;s++) {
-		System.out.println("Working on " + seqs[s].getName() + "...");
-		int index = VCFparser.getChromIndex(seqs[s].getName());
-		if (index <= 0 || index > _variants.length) continue;
-		ArrayList<Variant> varList = _variants[index - 1];
-
-		Sequence ref_seq = seqs[s];
-
-		int len = ref_seq.length();
-		byte[] maternal_seq = new byte[len];
-		byte[] paternal_seq = new byte[len];
-		byte[] ins_flag     = new byte[len];
-		// Flag specification:
-		// b -- insertion in both haplotypes
-		// p -- insertion in paternal haplotype
-		// m -- insertion in maternal haplotype
-
-		for (int c = 0;c < len;c++)
-		    maternal_seq[c] = paternal_seq[c] = ref_seq.byteAt(c);
-
-		Hashtable<Integer,String> pat_ins_seq =
-		    new Hashtable<Integer,String>(150);
-		Hashtable<Integer,String> mat_ins_seq =
-		    new Hashtable<Integer,String>(150);
-
-		int n_var_pat  = 0,n_var_mat  = 0;
-		int n_base_pat = 0,n_base_mat = 0;
-		ListIterator<Variant> it = varList.listIterator();
-		while (it.hasNext()) {
-		    Variant var = it.next();
-		    int     pos = var.position() - 1;
-		    int     del = var.deletion();
-		    if (!var.isPhased()) var.randomizeHaplotype();
-		    if (var.paternal() > 0)
-			if (addVariant(paternal_seq,ref_seq,
-				       pos,del,var.insertion(var.paternal()),
-				       pat_ins_seq)) {
-			    n_var_pat++;
-			    n_base_pat += var.variantBases();
-			}
-		    if (var.maternal() > 0)
-			if (addVariant(maternal_seq,ref_seq,
-				       pos,del,var.insertion(var.maternal()),
-				       mat_ins_seq)) {
-			    n_var_mat++;
-			    n_base_mat += var.variantBases();
-			}
-		}
+	_stream = stream;
+    }
 
-		writeMap(seqs[s],paternal_seq,maternal_seq,
-			 pat_ins_seq,mat_ins_seq);
-		writeDiploid(ref_seq,paternal_seq,maternal_seq,
-			     pat_ins_seq,mat_ins_seq);
-
-		paternal_chains.append(makeChains(seqs[s].getName(),
-						  paternalName(seqs[s].getName()),
-						  paternal_seq,pat_ins_seq,
-						  chain_id));
-		maternal_chains.append(makeChains(seqs[s].getName(),
-						  maternalName(seqs[s].getName()),
-						  maternal_seq,mat_ins_seq,
-						  chain_id));
-		chain_id++;
-		
-		System.out.println("Applied " + n_var_pat + " variants " +
-				   n_base_pat + " bases to " +
-				   "paternal genome.");
-		System.out.println("Applied " + n_var_mat + " variants " +
-				   n_base_mat + " bases to " +
-				   "maternal genome.");
-	    }
-	}
+    /**
+     * Sets number of bases per line in output FASTA files.
+     */
+    public void setLineWidth(int width)
+    {
+	_width = (width < 1) ? FastaWriter.DEFAULT_WIDTH : width;
+    }
 
-	try {
-	    FileWriter fw = new FileWriter(new File("paternal.chain"));
-	    BufferedWriter bw = new BufferedWriter(fw);
-	    bw.write(paternal_chains.toString());
-	    bw.newLine();
-	    bw.close();
-	    fw.close();
-	} catch (Exception ex) {
-	    System.err.println(ex.toString());
-	}
+    /**
+     * Sets file to write JSON report with metrics of the run into, or null
+     * for no report.
+     */
+    public void setReport(String fileName)
+    {
+	_report = fileName;
+    }
 
-	try {
-	    FileWriter fw = new FileWriter(new File("maternal.chain"));
-	    BufferedWriter bw = new BufferedWriter(fw);
-	    bw.write(maternal_chains.toString());
-	    bw.newLine();
-	    bw.close();
-	    fw.close();
-	} catch (Exception ex) {
-	    System.err.println(ex.toString());
-	}
+    /**
+     * Sets seed of random choice of haplotypes for unphased variants. The
+     * choice for each variant is derived from the seed, chromosome, sample
+     * and position, so output with the same seed is the same regardless of
+     * threads and order of processing. Without a seed, a random one is used.
+     */
+    public void setSeed(long seed)
+    {
+	_random = new SplitRandom(seed);
     }
 
-    private boolean addVariant(byte[] new_seq,Sequence ref_seq,
-			       int pos,int del,String ins,
-			       Hashtable<Integer,String> ins_seq)
+    /**
+     * Sets whether map is written as text (.map), in binary format for
+     * MapIndex (.map.bin), or both.
+     */
+    public void setMapFormat(boolean text,boolean binary)
     {
-	boolean overlap = false;
+	_text_map   = text;
+	_binary_map = binary;
+    }
 
-	if (pos >= new_seq.length || pos + del >= new_seq.length) {
-	    System.err.println("Variant out of chromosome bounds at " +
-			       ref_seq.getName() + ":" + (pos + 1) +
-			       ", (del,ins) of (" +
-			       del + "," + ins + ").");
-	    System.err.println("Skipping.");
-	    return false;
-	}
+    /**
+     * Sets BED or GTF/GFF files to lift over to haplotypes, or null for
+     * none, see LiftOver. Output of each goes into files with sample id and
+     * haplotype added to the name.
+     */
+    public void setAnnotations(String[] files)
+    {
+	_annotations = files;
+    }
 
-	for (int p = pos;p < pos + del;p++)
-	    if (new_seq[p] == DELETED_BASE ||
-		new_seq[p] != ref_seq.byteAt(p)) overlap = true;
-	
-	if (overlap) {
-	    System.err.println("Variant overlap at " +
-			       ref_seq.getName() + ":" + (pos + 1) +
-			       ", (del,ins) of (" +
-			       del + "," + ins + ").");
-	    System.err.println("Skipping.");
-	    return false;
-	}
+    /**
+     * Sets directory to write output into, or null for the current one.
+     */
+    public void setOutputDirectory(String dir)
+    {
+	_out = dir;
+    }
 
-	if (del == 1 && ins.length() == 1) { // SNP
-	    if (Character.isLowerCase((char)ref_seq.byteAt(pos)))
-		new_seq[pos] = (byte)Character.toLowerCase(ins.charAt(0));
-	    else
-		new_seq[pos] = (byte)Character.toUpperCase(ins.charAt(0));
-	} else { // Indel, SV
-	    //if (del <= 0) pos++; // Position adjustment
-	    if (ins_seq.get(pos) != null) {
-		System.err.println("Multiple insertions at " + 
-				   ref_seq.getName() + ":" + (pos + 1));
-		System.err.println("Skipping variant with (del,ins) of (" +
-				   del + "," + ins + ").");
-		return false;
-	    }
-	    for (int p = pos;p < pos + del;p++) 
-		new_seq[p] = DELETED_BASE;
+    /**
+     * Sets reference sequences loaded beforehand, e.g., by the server, to be
+     * used instead of reading FASTA files. They must be read from the same
+     * files as given to the constructor.
+     */
+    public void setReference(ResidentReference reference)
+    {
+	_reference = reference;
+    }
 
-	    // if (for_pat && for_mat) ins_flag[pos] = 'b';
-	    // else if (for_pat)       ins_flag[pos] = 'p';
-	    // else if (for_mat)       ins_flag[pos] = 'm';
+    /**
+     * Returns estimate of heap memory needed to make genome, given length of
+     * the longest chromosome: variants held while reading, and packed
+     * haplotypes of chromosomes made at once.
+     */
+    long memoryNeeded(long max_len)
+    {
+	long ret = 48*_buffer;
+	if (!_stream) ret += Math.min(_threads,_ids.length)*(max_len/2);
+	return ret;
+    }
 
-	    if (ins.length() > 0) ins_seq.put(new Integer(pos),ins);
-	}
+    /**
+     * Sets directory of cache of output for incremental rebuilds, or null for
+     * no cache. Chromosomes, whose reference bases, variants and settings
+     * are the same as in the previous run with the cache, are not made
+     * again: their output files are kept and chains are taken from the
+     * cache. Unphased variants need the same seed for output to be reused.
+     */
+    public void setCache(File dir)
+    {
+	_cache_dir = dir;
+    }
 
-	return true;
+    /**
+     * Sets maximal number of variants held in memory while reading VCF
+     * files. More variants are sorted and spilled into temporary files in
+     * the directory (null means the default temporary one).
+     */
+    public void setBuffer(long n_variants,File tmp)
+    {
+	_buffer = (n_variants < 1) ? 1 : n_variants;
+	_tmp    = tmp;
     }
 
-    private String makeChains(String ref_name,String der_name,
-			      byte[] genome,Hashtable<Integer,String> ins_seq,
-			      int id)
+    /**
+     * Sets how conflicting variants are resolved, see ConflictResolver.
+     */
+    public void setPolicy(int policy)
     {
-	boolean[] ins_flag = new boolean[genome.length];
-	Enumeration enm = ins_seq.keys();
-	while (enm.hasMoreElements()) {
-	    Integer key = (Integer)enm.nextElement();
-	    ins_flag[key.intValue()] = true;
-	}
-	int ref_len = genome.length;
-	int der_len = 0;
-	int score   = 0;
-	for (int p = 0;p < genome.length;p++) {
-	    if (ins_flag[p]) der_len += ins_seq.get(p).length();
-	    if (genome[p] != DELETED_BASE) {
-		der_len++;
-		score++;
-	    }
-	}
+	_policy = policy;
+    }
 
-	StringWriter ret = new StringWriter();
-        PrintWriter  wr  = new PrintWriter(ret);
-	wr.println("chain " + score + " " +
-		   ref_name + " " + ref_len + " + 0 " + ref_len + " " +
-		   der_name + " " + der_len + " + 0 " + der_len + " " + id);
-	int size = 0, dref = 0, dder = 0;
-	boolean flag = false;
-	for (int p = 0;p < genome.length;p++) {
-	    if (ins_flag[p]) {
-		dder += ins_seq.get(p).length();
-		flag = true;
-	    }
-	    if (genome[p] == DELETED_BASE) {
-		dref++;
-		flag = true;
-	    } else { // Normal base
-		if (flag) {
-		    wr.println(size + " " + dref + " " + dder);
-		    size = dref = dder = 0;
-		    flag = false;
-		}
-		size++;
-	    }
-	}
-	wr.println(size);
-	wr.println();
+    /**
+     * Sets regions to make diploid genome for. Only variants overlapping the
+     * regions are applied and only chromosomes of the regions are made.
+     */
+    public void setRegions(ArrayList<Region> regions)
+    {
+	_regions      = regions;
+	_region_index = (regions == null) ? null :
+	    Region.byChromosome(regions);
+    }
 
-	return ret.toString();
+    private static boolean isIndexed(String fileName)
+    {
+	return new File(fileName + ".tbi").exists() ||
+	    new File(fileName + ".csi").exists();
     }
 
-    private void writeMap(Sequence ref_seq,
-			  byte[] paternal,byte[] maternal,
-			  Hashtable<Integer,String> ins_seq_pat,
-			  Hashtable<Integer,String> ins_seq_mat)
+    /**
+     * Returns regions of whole chromosomes present in FASTA files. The
+     * chromosomes are registered in the contig dictionary along the way.
+     */
+    private ArrayList<Region> fastaContigs()
     {
-	if (paternal.length != maternal.length) {
-	    System.err.println("Paternal and maternal genomes are of " +
-			       "different lengths. Making map aborted.");
-	    return;
+	ArrayList<Region> ret = new ArrayList<Region>();
+	if (_reference != null) {
+	    for (int f = 0;f < _chrFiles.length;f++) {
+		Sequence[] seqs = _reference.sequences(f);
+		for (int s = 0;s < seqs.length;s++)
+		    if (seqs[s] != null)
+			ret.add(new Region(seqs[s].getName(),1,
+					   Integer.MAX_VALUE));
+	    }
+	    return ret;
 	}
-
-	boolean[] ins_flag_pat = new boolean[paternal.length];
-	Enumeration enm = ins_seq_pat.keys();
-	while (enm.hasMoreElements()) {
-	    Integer key = (Integer)enm.nextElement();
-	    ins_flag_pat[key.intValue()] = true;
+	for (int f = 0;f < _chrFiles.length;f++) {
+	    FastaIndex fai = FastaIndex.load(_chrFiles[f]);
+	    ArrayList<FastaIndex.Entry> entries = null;
+	    if (fai != null) {
+		entries = new ArrayList<FastaIndex.Entry>();
+		for (int s = 0;s < fai.size();s++) entries.add(fai.entry(s));
+	    } else entries = new FastaReader(_chrFiles[f]).scan();
+	    for (int s = 0;s < entries.size();s++)
+		ret.add(new Region(entries.get(s).name,1,Integer.MAX_VALUE));
 	}
-	boolean[] ins_flag_mat = new boolean[maternal.length];
-	enm = ins_seq_mat.keys();
-	while (enm.hasMoreElements()) {
-	    Integer key = (Integer)enm.nextElement();
-	    ins_flag_mat[key.intValue()] = true;
+	return ret;
+    }
+
+    /**
+     * Sets whether output FASTA files are compressed with BGZF. Compressed
+     * files are indexed (.fai and .gzi) while being written.
+     */
+    public void setCompressed(boolean bgzip)
+    {
+	_bgzip = bgzip;
+    }
+
+    /**
+     * Makes genome and writes report of the run. Returns false if making
+     * failed; errors are printed.
+     */
+    public boolean makeDiploid()
+    {
+	Metrics.reset();
+	boolean ret = true;
+	try {
+	    make();
+	} catch (IOException ex) { // Printed already
+	    ret = false;
 	}
+	Metrics.printSuppressed();
+	if (_report != null)
+	    try {
+		Metrics.writeReport(_report,VERSION,_threads,_random.seed());
+	    } catch (Exception ex) {
+		System.err.println(ex.toString());
+	    }
+	return ret;
+    }
 
+    /**
+     * Prints error and keeps it, if it's the first one, to fail the run with.
+     * Error of the sink, which is thrown by its streams, is printed by it.
+     */
+    private synchronized void failed(Throwable ex)
+    {
+	if (_sink == null || ex != _sink.error())
+	    System.err.println(ex.toString());
+	if (_failure == null) _failure = ex;
+    }
 
-	int NOT_IN_GENOME = 0;
-	String file_name = ref_seq.getName() + "_" + _id + ".map";
+    /**
+     * Makes genome adding to metrics of the run. Throws the first error of
+     * reading or writing files, after other chromosomes are done; output
+     * files, temporary files and worker threads are closed anyway.
+     */
+    void make() throws IOException
+    {
+	_failure = null;
+	_lifts   = null;
+	ExecutorService pool = null;
+	boolean written = false;
 	try {
-	    FileWriter fw = new FileWriter(new File(file_name));
-	    BufferedWriter bw = new BufferedWriter(fw);
-	    bw.write("#REF\tPAT\tMAT");
-	    bw.newLine();
-	    int ri =             1, pi =             1, mi =             1;
-	    int pr = NOT_IN_GENOME, pp = NOT_IN_GENOME, pm = NOT_IN_GENOME;
-	    for (int p = 0;p < paternal.length;p++) {
-		boolean for_pat  = ins_flag_pat[p];
-		boolean for_mat  = ins_flag_mat[p];
-		boolean for_both = for_pat && for_mat;
-		if (for_both)
-		    for_both = ins_seq_pat.get(p).equals(ins_seq_mat.get(p));
-		if (for_pat || for_mat || for_both)
-		    if (pr > 0 || pp > 0 || pm > 0) {
-			bw.write(pr + "\t" + pp + "\t" + pm);
-			bw.newLine();
-			pr = pp = pm = 0;
-		    }
-		if (for_both) {
-		    String new_seq = ins_seq_pat.get(p);
-		    if (new_seq != null) {
-			bw.write(NOT_IN_GENOME + "\t" + pi + "\t" + mi);
-			bw.newLine();
-			for (int i = 0;i < new_seq.length();i++) {
-			    pi++; mi++;
-			}
-		    }
-		} else {
-		    if (for_pat) {
-			String new_seq = ins_seq_pat.get(p);
-			if (new_seq != null) {
-			    bw.write(NOT_IN_GENOME + "\t" + pi + "\t" +
-				     NOT_IN_GENOME);
-			    bw.newLine();
-			    for (int i = 0;i < new_seq.length();i++) pi++;
-			}
+	    readVariants();
+	    for (int i = 0;_annotations != null && i < _annotations.length;i++) {
+		if (_lifts == null) _lifts = new ArrayList<LiftOver>();
+		_lifts.add(new LiftOver(_annotations[i],_tmp));
+	    }
+	    String[] pat_chains = new String[_ids.length];
+	    String[] mat_chains = new String[_ids.length];
+	    for (int s = 0;s < _ids.length;s++) {
+		if (prefix(s).length() > 0) new File(prefix(s)).mkdirs();
+		pat_chains[s] = prefix(s) + "paternal.chain";
+		mat_chains[s] = prefix(s) + "maternal.chain";
+	    }
+	    _sink = new OutputSink(64,pat_chains,mat_chains);
+	    if (_cache_dir != null)
+		_cache = new OutputCache(_cache_dir,VERSION + " width=" + _width +
+					 " bgzip=" + _bgzip + " policy=" +
+					 _policy + " map=" + _text_map + "," +
+					 _binary_map);
+	    Semaphore slots = null;
+	    ArrayList<Future<String[]>> results =
+		new ArrayList<Future<String[]>>(128);
+	    if (_threads > 1) {
+		pool  = Executors.newFixedThreadPool(_threads);
+		// Limits number of chromosomes held in memory at once
+		slots = new Semaphore(_threads);
+	    }
+	    int chain_id = 1;
+	    for (int f = 0;f < _chrFiles.length;f++) {
+		// Indexed file allows to load only sequences with variants
+		FastaIndex fai  = null;
+		Sequence[] seqs = null;
+		int      n_seqs = 0;
+		if (_reference != null) { // Loaded already
+		    seqs   = _reference.sequences(f);
+		    n_seqs = seqs.length;
+		} else if ((fai = FastaIndex.load(_chrFiles[f])) != null)
+		    n_seqs = fai.size();
+		else {
+		    Metrics.Timer timer = Metrics.start(Metrics.FASTA_LOAD,
+							_chrFiles[f]);
+		    seqs   = parseSequences(_chrFiles[f]);
+		    n_seqs = seqs.length;
+		    timer.stop();
+		    for (int s = 0;s < n_seqs;s++)
+			Metrics.count("fasta.bases_loaded",seqs[s].length());
+		}
+		for (int s = 0;s < n_seqs;s++) {
+		    String name = null;
+		    if (seqs != null) {
+			if (seqs[s] == null) continue; // Empty sequence
+			name = seqs[s].getName();
+		    } else if (fai.entry(s).length > 0) name = fai.entry(s).name;
+		    else continue; // Empty sequence
+		    int index = ContigDictionary.index(name);
+		    if (_region_index != null &&
+			!Region.overlaps(_region_index,index,1,Integer.MAX_VALUE))
+			continue;
+		    System.out.println("Working on " + name + "...");
+		    if (index <= 0) continue;
+		    Sequence seq = null;
+		    if (seqs != null) seq = seqs[s];
+		    else { // Mapped, bases are read as they are used
+			Metrics.Timer timer = Metrics.start(Metrics.FASTA_LOAD,
+							    name);
+			seq = fai.sequence(fai.entry(s));
+			timer.stop();
+			if (seq != null)
+			    Metrics.count("fasta.bases_loaded",seq.length());
 		    }
-		    if (for_mat) {
-			String new_seq = ins_seq_mat.get(p);
-			if (new_seq != null) {
-			    bw.write(NOT_IN_GENOME + "\t" + NOT_IN_GENOME +
-				     "\t" + mi);
-			    bw.newLine();
-			    for (int i = 0;i < new_seq.length();i++) mi++;
+		    if (seq == null) continue;
+		    VariantStore[] vars = _sorter.take(index);
+		    // Loaded chromosome is used for all samples before the next
+		    OutputCache.Reference ref = null;
+		    if (_cache != null) ref = new OutputCache.Reference(seq);
+		    for (int i = 0;i < _ids.length;i++) {
+			ChromosomeJob job =
+			    new ChromosomeJob(seq,ref,vars[i],chain_id,i,slots);
+			if (pool == null) {
+			    try {
+				job.call();
+			    } catch (Exception ex) {
+				failed(ex);
+			    }
+			    continue;
 			}
+			slots.acquireUninterruptibly();
+			results.add(pool.submit(job));
 		    }
+		    chain_id++;
 		}
-		int ref = ri++,pat = NOT_IN_GENOME,mat = NOT_IN_GENOME;
-		if (paternal[p] != DELETED_BASE) pat = pi++;
-		if (maternal[p] != DELETED_BASE) mat = mi++;
-		if (pr == NOT_IN_GENOME &&
-		    pp == NOT_IN_GENOME &&
-		    pm == NOT_IN_GENOME) { // Initiation
-		    pr = ref; pp = pat; pm = mat;
-		} else {
-		    boolean cand = 
-			((pat == NOT_IN_GENOME && pp == NOT_IN_GENOME) ||
-			 ref - pr == pat - pp) &&
-			((mat == NOT_IN_GENOME && pm == NOT_IN_GENOME) ||
-			 ref - pr == mat - pm);
-		    if (!cand) {
-			bw.write(pr + "\t" + pp + "\t" + pm);
-			bw.newLine();
-			pr = ref; pp = pat; pm = mat;
-		    }
+		seqs = null;
+	    }
+
+	    // Chains are written by the sink in the order of ids, so output is
+	    // the same as in serial run
+	    for (int i = 0;i < results.size();i++)
+		try {
+		    results.get(i).get();
+		} catch (ExecutionException ex) {
+		    failed(ex.getCause());
+		} catch (InterruptedException ex) {
+		    throw new InterruptedIOException();
+		}
+	} catch (IOException ex) {
+	    failed(ex);
+	} finally {
+	    // Jobs still running write into the sink, so it's closed after them
+	    if (pool != null) {
+		pool.shutdown();
+		try {
+		    while (!pool.awaitTermination(1,TimeUnit.MINUTES));
+		} catch (InterruptedException ex) {
+		    pool.shutdownNow();
 		}
 	    }
-	    if (pr > 0 || pp > 0 || pm > 0) {
-		bw.write(pr + "\t" + pp + "\t" + pm);
-		bw.newLine();
+	    if (_sorter != null) _sorter.close();
+	    _sorter = null;
+	    if (_sink != null)
+		try {
+		    _sink.close();
+		    written = true;
+		} catch (IOException ex) {
+		    failed(ex);
+		}
+	    _sink = null;
+	    // Manifest isn't updated if output failed, its entries of files
+	    // which were written since then don't match them
+	    if (_cache != null && written) _cache.close();
+	    _cache = null;
+	}
+	for (int i = 0;_failure == null && _lifts != null &&
+		 i < _lifts.size();i++) {
+	    String file = new File(_annotations[i]).getName(), ext = "";
+	    int dot = file.lastIndexOf('.');
+	    if (dot > 0) {
+		ext  = file.substring(dot);
+		file = file.substring(0,dot);
+	    }
+	    for (int s = 0;s < _ids.length;s++)
+		try {
+		    String base = prefix(s) + file + "_" + _ids[s];
+		    _lifts.get(i).finish(s,paternalName(base) + ext,
+					 maternalName(base) + ext);
+		} catch (IOException ex) {
+		    failed(ex);
+		}
+	}
+	// Records not joined, e.g., after a failure, are dropped
+	for (int i = 0;_lifts != null && i < _lifts.size();i++)
+	    _lifts.get(i).discard();
+	_lifts = null;
+	if (_failure instanceof IOException) throw (IOException)_failure;
+	if (_failure != null) throw new IOException(_failure.toString(),_failure);
+    }
+
+    /**
+     * Lifts over annotations to haplotypes of chromosome made for the
+     * sample, given aligned blocks of their chains.
+     */
+    private void liftOver(String name,int sample,int[] pat,int[] mat)
+    {
+	for (int i = 0;_lifts != null && i < _lifts.size();i++)
+	    try {
+		_lifts.get(i).lift(name,sample,paternalName(name),pat,
+				   maternalName(name),mat);
+	    } catch (IOException ex) {
+		failed(ex);
+	    }
+    }
+
+    /**
+     * Applies variants to one chromosome and writes its haplotypes and map.
+     * Returns paternal and maternal chains for the chromosome.
+     */
+    private String[] makeDiploid(Sequence ref_seq,VariantStore vars,
+				 int chain_id,int sample)
+    {
+	if (vars.size() == 0) return copyDiploid(ref_seq,chain_id,sample);
+
+	PackedHaplotype paternal_seq = new PackedHaplotype(ref_seq);
+	PackedHaplotype maternal_seq = new PackedHaplotype(paternal_seq);
+
+	InsertionIndex pat_ins_seq = new InsertionIndex();
+	InsertionIndex mat_ins_seq = new InsertionIndex();
+
+	boolean[][] applied = resolve(ref_seq,vars,sample);
+	Metrics.Timer timer = Metrics.start(Metrics.APPLY,ref_seq.getName());
+	int n_var_pat  = 0,n_var_mat  = 0;
+	int n_base_pat = 0,n_base_mat = 0;
+	byte[] alleles = vars.alleles();
+	for (int i = 0;i < vars.size();i++) {
+	    int pos = vars.position(i) - 1;
+	    int del = vars.deletion(i);
+	    if (applied[0][i]) {
+		applyVariant(paternal_seq,ref_seq,pos,del,alleles,
+			     vars.paternalOffset(i),vars.paternalLength(i),
+			     pat_ins_seq);
+		n_var_pat++;
+		n_base_pat += vars.variantBases(i);
+	    }
+	    if (applied[1][i]) {
+		applyVariant(maternal_seq,ref_seq,pos,del,alleles,
+			     vars.maternalOffset(i),vars.maternalLength(i),
+			     mat_ins_seq);
+		n_var_mat++;
+		n_base_mat += vars.variantBases(i);
 	    }
-	    bw.close();
-	    fw.close();
-	} catch (Exception ex) {
-	    System.err.println(ex.toString());
 	}
+
+	timer.stop();
+	count(n_var_pat + n_var_mat,n_base_pat + n_base_mat);
+
+	String[] ret = writeDiploid(ref_seq,paternal_seq,maternal_seq,
+				   pat_ins_seq,mat_ins_seq,chain_id,sample);
+
+	// Single print, so that lines from different threads don't mix
+	System.out.print("Applied " + n_var_pat + " variants " +
+			 n_base_pat + " bases to " +
+			 "paternal genome" + of(sample) + ".\n" +
+			 "Applied " + n_var_mat + " variants " +
+			 n_base_mat + " bases to " +
+			 "maternal genome" + of(sample) + ".\n");
+	return ret;
     }
 
-    private void writeDiploid(Sequence ref_seq,
-			      byte[] paternal,byte[] maternal,
-			      Hashtable<Integer,String> pat_ins_seq,
-			      Hashtable<Integer,String> mat_ins_seq)
+    /**
+     * Same as makeDiploid, but haplotypes are kept as edits to the reference
+     * and the output is written in one walk along the reference. Memory used
+     * is proportional to the number of variants.
+     */
+    private String[] streamDiploid(Sequence ref_seq,VariantStore vars,
+				   int chain_id,int sample)
     {
-	String file_name = paternalName(ref_seq.getName() + "_" + _id) + ".fa";
-	String name      = paternalName(ref_seq.getName());
+	Haplotype paternal = new Haplotype(ref_seq);
+	Haplotype maternal = new Haplotype(ref_seq);
+
+	boolean[][] applied = resolve(ref_seq,vars,sample);
+	Metrics.Timer timer = Metrics.start(Metrics.APPLY,ref_seq.getName());
+	int n_var_pat  = 0,n_var_mat  = 0;
+	int n_base_pat = 0,n_base_mat = 0;
+	byte[] alleles = vars.alleles();
+	for (int i = 0;i < vars.size();i++) {
+	    int pos = vars.position(i) - 1;
+	    int del = vars.deletion(i);
+	    if (applied[0][i]) {
+		paternal.addVariant(pos,del,alleles,vars.paternalOffset(i),
+				    vars.paternalLength(i));
+		n_var_pat++;
+		n_base_pat += vars.variantBases(i);
+	    }
+	    if (applied[1][i]) {
+		maternal.addVariant(pos,del,alleles,vars.maternalOffset(i),
+				    vars.maternalLength(i));
+		n_var_mat++;
+		n_base_mat += vars.variantBases(i);
+	    }
+	}
+
+	int len = ref_seq.length();
+
+	// Between two consecutive points both haplotypes are unchanged
+	TreeSet<Integer> points = new TreeSet<Integer>();
+	points.add(0);
+	points.add(len);
+	paternal.addBreakpoints(points);
+	maternal.addBreakpoints(points);
+	timer.stop();
+	count(n_var_pat + n_var_mat,n_base_pat + n_base_mat);
+
+	DiploidWriter out = new DiploidWriter(ref_seq.getName(),len,chain_id,
+					      sample);
 	try {
-	    FileWriter fw = new FileWriter(new File(file_name));
-	    BufferedWriter bw = new BufferedWriter(fw);
-	    writeGenome(bw,name,paternal,pat_ins_seq);
-	    bw.close();
-	    fw.close();
+	    InsertionIndex pat_ins = paternal.insertions();
+	    InsertionIndex mat_ins = maternal.insertions();
+	    byte[] pat_snp = new byte[1], mat_snp = new byte[1];
+	    byte[] buf     = new byte[1 << 16];
+	    Iterator<Integer> pit = points.iterator();
+	    int start = pit.next();
+	    while (pit.hasNext()) {
+		int end = pit.next();
+		if (end > len) break;
+
+		int ip = pat_ins.find(start), im = mat_ins.find(start);
+		out.insertion(pat_ins,ip,mat_ins,im);
+
+		boolean pat_has = !paternal.isDeleted(start);
+		boolean mat_has = !maternal.isDeleted(start);
+		if (end - start == 1) { // May be SNP
+		    pat_snp[0] = paternal.byteAt(start);
+		    mat_snp[0] = maternal.byteAt(start);
+		    out.bases(1,pat_has ? pat_snp : null,0,
+			      mat_has ? mat_snp : null,0);
+		} else
+		    for (int p = start;p < end;p += buf.length) {
+			int n = Math.min(buf.length,end - p);
+			ref_seq.copy(p,buf,0,n);
+			out.bases(n,pat_has ? buf : null,0,
+				  mat_has ? buf : null,0);
+		    }
+		start = end;
+	    }
 	} catch (Exception ex) {
-	    System.err.println(ex.toString());
+	    failed(ex);
 	}
+	String[] ret = out.close();
+
+	System.out.print("Applied " + n_var_pat + " variants " +
+			 n_base_pat + " bases to " +
+			 "paternal genome" + of(sample) + ".\n" +
+			 "Applied " + n_var_mat + " variants " +
+			 n_base_mat + " bases to " +
+			 "maternal genome" + of(sample) + ".\n");
+	return ret;
+    }
 
-	file_name = maternalName(ref_seq.getName() + "_" + _id) + ".fa";
-	name      = maternalName(ref_seq.getName());
+    /**
+     * Writes haplotypes, map and chains for a chromosome without variants.
+     * Haplotypes are copied from the reference as is, without making them
+     * in memory.
+     */
+    private String[] copyDiploid(Sequence ref_seq,int chain_id,int sample)
+    {
+	int len = ref_seq.length();
+	DiploidWriter out = new DiploidWriter(ref_seq.getName(),len,chain_id,
+					      sample);
 	try {
-	    FileWriter fw = new FileWriter(new File(file_name));
-	    BufferedWriter bw = new BufferedWriter(fw);
-	    writeGenome(bw,name,maternal,mat_ins_seq);
-	    bw.close();
-	    fw.close();
+	    byte[] buf = new byte[1 << 16];
+	    for (int p = 0;p < len;p += buf.length) {
+		int n = Math.min(buf.length,len - p);
+		ref_seq.copy(p,buf,0,n);
+		out.bases(n,buf,0,buf,0);
+	    }
 	} catch (Exception ex) {
-	    System.err.println(ex.toString());
+	    failed(ex);
 	}
+	String[] ret = out.close();
+
+	System.out.print("Applied 0 variants 0 bases to paternal genome" +
+			 of(sample) + ".\n" +
+			 "Applied 0 variants 0 bases to maternal genome" +
+			 of(sample) + ".\n");
+	return ret;
     }
 
-    private void writeGenome(BufferedWriter bw,String name,
-			     byte[] genome,Hashtable<Integer,String> ins_seq)
-	throws Exception
+    /**
+     * Randomizes haplotypes of unphased variants, and decides which
+     * variants are applied to paternal and maternal haplotypes. Messages
+     * about conflicts are printed at once. Variants at the same position
+     * are told apart by their order.
+     */
+    private boolean[][] resolve(Sequence ref_seq,VariantStore vars,
+				int sample)
     {
-	final int line_width = 50;
-
-	boolean[] ins_flag = new boolean[genome.length];
-	Enumeration enm = ins_seq.keys();
-	while (enm.hasMoreElements()) {
-	    Integer key = (Integer)enm.nextElement();
-	    ins_flag[key.intValue()] = true;
+	SplitRandom rand = _random.split(ref_seq.getName()).split(_ids[sample]);
+	for (int i = 0,k = 0;i < vars.size();i++) {
+	    int pos = vars.position(i);
+	    k = (i > 0 && vars.position(i - 1) == pos) ? k + 1 : 0;
+	    if (!vars.isPhased(i))
+		vars.randomizeHaplotype(i,rand,((long)pos << 32) | k);
 	}
+	Metrics.Timer timer = Metrics.start(Metrics.RESOLVE,ref_seq.getName());
+	ConflictResolver resolver = new ConflictResolver(_policy);
+	StringBuilder report = new StringBuilder();
+	boolean[][] ret = { resolver.resolve(ref_seq,vars,true,report),
+			    resolver.resolve(ref_seq,vars,false,report) };
+	timer.stop();
+	if (report.length() > 0) System.err.print(report);
+	return ret;
+    }
 
-	bw.write(">" + name);
-	bw.newLine();
+    /**
+     * Counts variants and their bases applied to haplotypes (a homozygous
+     * variant is counted twice).
+     */
+    private static void count(int n_vars,int n_bases)
+    {
+	Metrics.count("haplotypes.variants_applied",n_vars);
+	Metrics.count("haplotypes.bases_applied",n_bases);
+    }
 
-	StringBuffer line = new StringBuffer();
-	for (int p = 0;p < genome.length;p++) {
-	    if (ins_flag[p]) {
-		String new_seq = ins_seq.get(p);
-		if (new_seq != null && new_seq.length() > 0)
-		    line.append(new_seq);
-	    }
-	    if (genome[p] != DELETED_BASE) line.append((char)genome[p]);
-	    while (line.length() >= line_width) {
-		bw.write(line.toString(),0,line_width);
-		bw.newLine();
-		line.delete(0,line_width);
-	    }
-	}
-	while (line.length() > 0) {
-	    int n = line.length();
-	    if (line_width < n) n = line_width; 
-	    bw.write(line.toString(),0,n);
-	    bw.newLine();
-	    line.delete(0,n);
+    /**
+     * Applies variant, which doesn't conflict with applied ones, to the
+     * haplotype. Inserted bases are given by offset and length in the
+     * array.
+     */
+    private void applyVariant(PackedHaplotype new_seq,Sequence ref_seq,
+			      int pos,int del,byte[] ins,int off,int n,
+			      InsertionIndex ins_seq)
+    {
+	if (del == 1 && n == 1) { // SNP
+	    new_seq.substitute(pos,ConflictResolver.snp(ref_seq.byteAt(pos),
+							ins[off]));
+	    return;
 	}
+	new_seq.delete(pos,del); // Indel, SV
+	if (n > 0) ins_seq.put(pos,ins,off,n);
     }
 
-    private Sequence[] parseSequences(String fileName)
+    /**
+     * Writes haplotypes, map and chains in one walk along the chromosome.
+     * The walk goes by runs of bases, which are present or deleted in both
+     * haplotypes and have no insertions inside; bases of the runs are
+     * decoded in chunks. Returns paternal and maternal chains.
+     */
+    private String[] writeDiploid(Sequence ref_seq,
+				  PackedHaplotype paternal,
+				  PackedHaplotype maternal,
+				  InsertionIndex pat_ins_seq,
+				  InsertionIndex mat_ins_seq,int chain_id,
+				  int sample)
     {
-	ArrayList<Sequence> ss = new ArrayList<Sequence>(1);
-	String header = "";
-	File file = new File(fileName);
-	byte[] seq = new byte[300000000];
-	int index = 0;
+	int len = paternal.length();
+	DiploidWriter out = new DiploidWriter(ref_seq.getName(),len,chain_id,
+					      sample);
+	if (maternal.length() != len) {
+	    System.err.println("Paternal and maternal genomes are of " +
+			       "different lengths. Making output aborted.");
+	    return out.close();
+	}
+
 	try {
-	    FileReader     fr = new FileReader(file);
-	    BufferedReader br = new BufferedReader(fr);
-	    String line = new String("");
-	    while ((line = br.readLine()) != null) {
-		if (line.startsWith(">")) {
-		    if (index > 0)
-			ss.add(new Sequence(header,seq,index));
-		    header = line;
-		    index  = 0;
-		} else {
-		    for (int i = 0;i < line.length();i++)
-			seq[index++] = (byte)line.charAt(i);
+	    int next_pat = 0, n_pat = pat_ins_seq.size();
+	    int next_mat = 0, n_mat = mat_ins_seq.size();
+	    byte[] pat_buf = new byte[1 << 16], mat_buf = new byte[1 << 16];
+	    int p = 0;
+	    while (p < len) {
+		int ip = -1, im = -1; // Indices of insertions at the position
+		if (next_pat < n_pat && pat_ins_seq.position(next_pat) == p)
+		    ip = next_pat++;
+		if (next_mat < n_mat && mat_ins_seq.position(next_mat) == p)
+		    im = next_mat++;
+		out.insertion(pat_ins_seq,ip,mat_ins_seq,im);
+
+		int stop = len; // Next insertion
+		if (next_pat < n_pat)
+		    stop = Math.min(stop,pat_ins_seq.position(next_pat));
+		if (next_mat < n_mat)
+		    stop = Math.min(stop,mat_ins_seq.position(next_mat));
+		boolean pat_has = !paternal.isDeleted(p);
+		boolean mat_has = !maternal.isDeleted(p);
+		int end = Math.min(stop,Math.min(paternal.nextBoundary(p),
+						 maternal.nextBoundary(p)));
+		end = Math.max(end,p + 1);
+		while (p < end) {
+		    int n = Math.min(pat_buf.length,end - p);
+		    if (pat_has) paternal.copy(p,pat_buf,0,n);
+		    if (mat_has) maternal.copy(p,mat_buf,0,n);
+		    out.bases(n,pat_has ? pat_buf : null,0,
+			      mat_has ? mat_buf : null,0);
+		    p += n;
 		}
 	    }
-	    br.close();
-	    fr.close();
 	} catch (Exception ex) {
-	    System.err.println("Can't open file " + fileName);
-	    System.err.println(ex.toString());
+	    failed(ex);
 	}
-	if (index > 0) ss.add(new Sequence(header,seq,index));
-	return ss.toArray(new Sequence[0]);
+	return out.close();
+    }
+
+    /**
+     * Directory for output of the sample: output directory, if given, and
+     * directory of the sample, if there are several samples.
+     */
+    private String prefix(int sample)
+    {
+	String ret = (_out == null) ? "" : _out + File.separator;
+	if (_ids.length <= 1) return ret;
+	return ret + _ids[sample] + File.separator;
+    }
+
+    /**
+     * Output files of chromosome for the sample, map files first.
+     */
+    private String[] outputFiles(String name,int sample)
+    {
+	String base = prefix(sample) + name + "_" + _ids[sample];
+	String pat = paternalName(base), mat = maternalName(base);
+	ArrayList<String> ret = new ArrayList<String>();
+	if (_text_map)   ret.add(base + ".map");
+	if (_binary_map) ret.add(base + ".map.bin");
+	if (!_bgzip) {
+	    ret.add(pat + ".fa");
+	    ret.add(mat + ".fa");
+	} else {
+	    pat += ".fa.gz";
+	    mat += ".fa.gz";
+	    ret.addAll(Arrays.asList(pat,pat + ".gzi",pat + ".fai",
+				     mat,mat + ".gzi",mat + ".fai"));
+	}
+	return ret.toArray(new String[0]);
+    }
+
+    private String of(int sample)
+    {
+	return (_ids.length <= 1) ? "" : " of " + _ids[sample];
+    }
+
+    private Sequence[] parseSequences(String fileName)
+    {
+	return new FastaReader(fileName).readAll();
     }
 
     private String maternalName(String name)
@@ -486,21 +837,65 @@ public class VCF2diploid
     }
     
     /**
-     * Main function.
+     * Main function. With -server, runs server making genomes for jobs sent
+     * with -submit.
      */
     public static void main(String[] args)
     {
-	String VERSION = "vcf2diploid - v0.2.6";
+	for (int i = 0;i < args.length;i++)
+	    if (args[i].equals("-server")) {
+		DiploidServer.main(args);
+		return;
+	    } else if (args[i].equals("-submit")) {
+		DiploidServer.submit(args);
+		return;
+	    } else if (args[i].equals("-lookup")) {
+		MapIndex.main(Arrays.copyOfRange(args,i + 1,args.length));
+		return;
+	    }
+	VCF2diploid maker = configure(args);
+	if (maker != null && !maker.makeDiploid()) System.exit(1);
+    }
 
+    /**
+     * Returns maker configured by command line arguments, or null if they
+     * are invalid or nothing is to be made. Errors are printed.
+     */
+    static VCF2diploid configure(String[] args)
+    {
 	ArrayList<String> chrFiles = new ArrayList<String>(1);
 	ArrayList<String> vcfFiles = new ArrayList<String>(1);
-	String id = "";
+	ArrayList<String> annotations = null;
+	LinkedHashSet<String> ids = new LinkedHashSet<String>();
 	boolean pass = false;
+	int threads = 1;
+	boolean stream = false, bgzip = false;
+	int width = FastaWriter.DEFAULT_WIDTH;
+	ArrayList<Region> regions = null;
+	int policy = ConflictResolver.FIRST;
+	long buffer = 5000000;
+	File tmp = null;
+	String report = null;
+	Integer max_warnings = null;
+	Long seed = null;
+	File cache = null;
+	String out = null;
+	String map = "text";
 
 	String usage = "Usage:\n";
-	usage += "\tvcf2diploid -id sample_id [-pass] ";
+	usage += "\tvcf2diploid -id sample_id ... [-ids file.txt] [-pass] ";
 	usage += "-chr file.fa ... ";
-	usage += "[-vcf file.vcf ...]\n";
+	usage += "[-vcf file.vcf ...] [-threads N] [-stream]\n";
+	usage += "\t\t[-width N] [-bgzip] [-region chr:beg-end ...]\n";
+	usage += "\t\t[-policy first|qual|longest] [-buffer N] [-tmp dir]\n";
+	usage += "\t\t[-report file.json] [-max-warnings N] [-seed N]\n";
+	usage += "\t\t[-cache dir] [-out dir] [-map text|binary|both]\n";
+	usage += "\t\t[-annotation file.bed|file.gtf ...]\n";
+	usage += "\tvcf2diploid -server port -chr file.fa ... [-jobs N] ";
+	usage += "[-queue N] [-memory MB]\n";
+	usage += "\tvcf2diploid -submit port -id sample_id ... [options]\n";
+	usage += "\tvcf2diploid -lookup file.map.bin ref|pat|mat ";
+	usage += "[positions.txt ...]\n";
 	usage += "\tvcf2diploid -version\n";
 
 	for (int i = 0;i < args.length;i++) {
@@ -512,26 +907,129 @@ public class VCF2diploid
 		while (++i < args.length) 
 		    if (args[i].charAt(0) != '-') chrFiles.add(args[i]);
 		    else { i--; break; }
+	    } else if (args[i].equals("-annotation")) {
+		if (annotations == null) annotations = new ArrayList<String>();
+		while (++i < args.length)
+		    if (args[i].charAt(0) != '-') annotations.add(args[i]);
+		    else { i--; break; }
+	    } else if (args[i].equals("-region")) {
+		if (regions == null) regions = new ArrayList<Region>();
+		while (++i < args.length)
+		    if (args[i].charAt(0) != '-') {
+			Region r = Region.parse(args[i]);
+			if (r == null) {
+			    System.err.println("Invalid region '" +
+					       args[i] + "'.");
+			    return null;
+			}
+			regions.add(r);
+		    } else { i--; break; }
 	    } else if (args[i].equals("-id")) {
-		if (++i < args.length) id = args[i];
+		if (++i < args.length) ids.add(args[i]);
+		while (++i < args.length)
+		    if (args[i].charAt(0) != '-') ids.add(args[i]);
+		    else { i--; break; }
+	    } else if (args[i].equals("-ids")) { // One id per line
+		if (++i < args.length)
+		    try {
+			BufferedReader br =
+			    new BufferedReader(new FileReader(args[i]));
+			String line;
+			while ((line = br.readLine()) != null)
+			    if (line.trim().length() > 0) ids.add(line.trim());
+			br.close();
+		    } catch (Exception ex) {
+			System.err.println(ex.toString());
+			return null;
+		    }
 	    } else if (args[i].equals("-version")) {
 		System.out.println(VERSION);
-		return;
+		return null;
 	    } else if (args[i].equals("-pass")) {
 		pass = true;
+	    } else if (args[i].equals("-stream")) {
+		stream = true;
+	    } else if (args[i].equals("-bgzip")) {
+		bgzip = true;
+	    } else if (args[i].equals("-width")) {
+		if (++i < args.length)
+		    try {
+			width = Integer.parseInt(args[i]);
+		    } catch (Exception ex) {
+			System.err.println("Invalid line width '" +
+					   args[i] + "'.");
+			return null;
+		    }
+	    } else if (args[i].equals("-policy")) {
+		if (++i < args.length) policy = ConflictResolver.policy(args[i]);
+		if (policy < 0) {
+		    System.err.println("Unknown policy '" + args[i] + "'.");
+		    return null;
+		}
+	    } else if (args[i].equals("-buffer")) {
+		if (++i < args.length)
+		    try {
+			buffer = Long.parseLong(args[i]);
+		    } catch (Exception ex) {
+			System.err.println("Invalid buffer size '" +
+					   args[i] + "'.");
+			return null;
+		    }
+	    } else if (args[i].equals("-report")) {
+		if (++i < args.length) report = args[i];
+	    } else if (args[i].equals("-max-warnings")) {
+		if (++i < args.length)
+		    try {
+			max_warnings = Integer.valueOf(args[i]);
+		    } catch (Exception ex) {
+			System.err.println("Invalid number of warnings '" +
+					   args[i] + "'.");
+			return null;
+		    }
+	    } else if (args[i].equals("-seed")) {
+		if (++i < args.length)
+		    try {
+			seed = Long.valueOf(args[i]);
+		    } catch (Exception ex) {
+			System.err.println("Invalid seed '" + args[i] + "'.");
+			return null;
+		    }
+	    } else if (args[i].equals("-map")) {
+		if (++i < args.length) map = args[i];
+		if (!map.equals("text") && !map.equals("binary") &&
+		    !map.equals("both")) {
+		    System.err.println("Unknown map format '" + map + "'.");
+		    return null;
+		}
+	    } else if (args[i].equals("-out")) {
+		if (++i < args.length) out = args[i];
+	    } else if (args[i].equals("-cache")) {
+		if (++i < args.length) cache = new File(args[i]);
+	    } else if (args[i].equals("-tmp")) {
+		if (++i < args.length) tmp = new File(args[i]);
+	    } else if (args[i].equals("-threads")) {
+		if (++i < args.length)
+		    try {
+			threads = Integer.parseInt(args[i]);
+		    } catch (Exception ex) {
+			System.err.println("Invalid number of threads '" +
+					   args[i] + "'.");
+			return null;
+		    }
 	    }
 	}
 
-	if (id.length() <= 0) {
+	ids.remove("");
+	if (ids.size() == 0) {
 	    System.err.println("No sample id is given.\n");
 	    System.err.println(usage);
-	    return;
+	    return null;
 	}
 
 	if (chrFiles.size() == 0) {
 	    System.err.println("No chromosome file(s) is given!\n");
 	    System.err.println(usage);
-	    return;
+	    return null;
 	}
 
 	if (vcfFiles.size() == 0)
@@ -540,30 +1038,248 @@ public class VCF2diploid
 	VCF2diploid maker =
 	    new VCF2diploid(chrFiles.toArray(new String[0]),
 			    vcfFiles.toArray(new String[0]),
-			    id,pass);
-	maker.makeDiploid();
+			    ids.toArray(new String[0]),pass);
+	maker.setThreads(threads);
+	maker.setStreaming(stream);
+	maker.setLineWidth(width);
+	maker.setCompressed(bgzip);
+	maker.setRegions(regions);
+	maker.setPolicy(policy);
+	maker.setBuffer(buffer,tmp);
+	maker.setReport(report);
+	if (seed != null) maker.setSeed(seed.longValue());
+	maker.setCache(cache);
+	maker.setOutputDirectory(out);
+	maker.setMapFormat(!map.equals("binary"),!map.equals("text"));
+	if (annotations != null)
+	    maker.setAnnotations(annotations.toArray(new String[0]));
+	if (max_warnings != null)
+	    Metrics.setMaxWarnings(max_warnings.intValue());
+	return maker;
     }
 
 
-    private class Sequence
+    /**
+     * Output for one chromosome: paternal and maternal FASTA files, map and
+     * chains. Insertions and runs of bases are given in the order of
+     * reference positions. Time spent in each writer is added to metrics
+     * on closing.
+     */
+    private class DiploidWriter
+    {
+	private BufferedWriter _map_bw    = null;
+	private OutputStream   _map_bin   = null;
+	private MapWriter      _map       = null;
+	private FastaWriter    _pat       = null, _mat       = null;
+	private ChainBuilder   _pat_chain = null, _mat_chain = null;
+	private Metrics.Timer  _timer     = null;
+	private long           _t_chain   = 0, _t_map = 0, _t_fasta = 0;
+	private String         _name      = null;
+	private int            _sample    = 0;
+
+	public DiploidWriter(String name,int len,int chain_id,int sample)
+	{
+	    _timer = Metrics.start(Metrics.WRITE,name);
+	    _name   = name;
+	    _sample = sample;
+	    String id = _ids[sample], dir = prefix(sample);
+	    _pat_chain = new ChainBuilder(name,paternalName(name),len,chain_id);
+	    _mat_chain = new ChainBuilder(name,maternalName(name),len,chain_id);
+	    if (_lifts != null) { // Blocks for liftover
+		_pat_chain.keepBlocks();
+		_mat_chain.keepBlocks();
+	    }
+	    try {
+		String map = dir + name + "_" + id + ".map";
+		if (_text_map)
+		    _map_bw = new BufferedWriter
+			(new OutputStreamWriter(_sink.open(map)));
+		if (_binary_map) _map_bin = _sink.open(map + ".bin");
+		_map = new MapWriter(_map_bw,_map_bin);
+		_pat = open(dir + paternalName(name + "_" + id),
+			    paternalName(name));
+		_mat = open(dir + maternalName(name + "_" + id),
+			    maternalName(name));
+	    } catch (Exception ex) {
+		failed(ex);
+	    }
+	}
+
+	/**
+	 * Insertions before the next base. Index of -1 means no insertion.
+	 */
+	public void insertion(InsertionIndex pat,int ip,
+			      InsertionIndex mat,int im) throws IOException
+	{
+	    int pat_n = (ip < 0) ? 0 : pat.length(ip);
+	    int mat_n = (im < 0) ? 0 : mat.length(im);
+	    if (pat_n <= 0 && mat_n <= 0) return;
+	    long t0 = System.nanoTime();
+	    _pat_chain.insertion(pat_n);
+	    _mat_chain.insertion(mat_n);
+	    long t1 = System.nanoTime();
+	    if (_map != null)
+		_map.insertion(pat_n,mat_n,
+			       ip >= 0 && im >= 0 && pat.same(ip,mat,im));
+	    long t2 = System.nanoTime();
+	    if (pat_n > 0 && _pat != null)
+		_pat.write(pat.bases(),pat.offset(ip),pat_n);
+	    if (mat_n > 0 && _mat != null)
+		_mat.write(mat.bases(),mat.offset(im),mat_n);
+	    time(t0,t1,t2);
+	}
+
+	/**
+	 * Next n reference bases. Bases of a haplotype are taken from the
+	 * array starting at the offset; null array means they are deleted.
+	 */
+	public void bases(int n,byte[] pat,int pat_off,
+			  byte[] mat,int mat_off) throws IOException
+	{
+	    long t0 = System.nanoTime();
+	    if (pat != null) _pat_chain.match(n);
+	    else             _pat_chain.deletion(n);
+	    if (mat != null) _mat_chain.match(n);
+	    else             _mat_chain.deletion(n);
+	    long t1 = System.nanoTime();
+	    if (_map != null) _map.bases(n,pat != null,mat != null);
+	    long t2 = System.nanoTime();
+	    if (pat != null && _pat != null) _pat.write(pat,pat_off,n);
+	    if (mat != null && _mat != null) _mat.write(mat,mat_off,n);
+	    time(t0,t1,t2);
+	}
+
+	private void time(long t0,long t1,long t2)
+	{
+	    _t_chain += t1 - t0;
+	    _t_map   += t2 - t1;
+	    _t_fasta += System.nanoTime() - t2;
+	}
+
+	/**
+	 * Closes files and returns paternal and maternal chains. Annotations
+	 * are lifted over to the haplotypes.
+	 */
+	public String[] close()
+	{
+	    // Each file is closed even if others fail, the first error fails
+	    // the run
+	    Exception error = null;
+	    long t0 = System.nanoTime();
+	    try {
+		if (_map != null) _map.finish();
+	    } catch (Exception ex) {
+		error = ex;
+	    }
+	    error = close(_map_bw,error);
+	    error = close(_map_bin,error);
+	    long t1 = System.nanoTime();
+	    error = close(_pat,error);
+	    error = close(_mat,error);
+	    _t_map   += t1 - t0;
+	    _t_fasta += System.nanoTime() - t1;
+	    if (error != null) failed(error);
+	    t0 = System.nanoTime();
+	    String[] ret = { _pat_chain.toString(),_mat_chain.toString() };
+	    _t_chain += System.nanoTime() - t0;
+	    Metrics.add(Metrics.WRITE_CHAIN,_t_chain,1);
+	    Metrics.add(Metrics.WRITE_MAP,_t_map,1);
+	    Metrics.add(Metrics.WRITE_FASTA,_t_fasta,1);
+	    _timer.stop();
+	    if (_lifts != null)
+		liftOver(_name,_sample,_pat_chain.blocks(),_mat_chain.blocks());
+	    return ret;
+	}
+
+	/**
+	 * Closes file, if it is open. Returns the first of the given error
+	 * and error of closing.
+	 */
+	private Exception close(Closeable file,Exception error)
+	{
+	    try {
+		if (file != null) file.close();
+	    } catch (Exception ex) {
+		if (error == null) error = ex;
+	    }
+	    return error;
+	}
+
+	private FastaWriter open(String file_name,String name)
+	    throws IOException
+	{
+	    if (!_bgzip)
+		return new FastaWriter(_sink.open(file_name + ".fa"),name,
+				       _width,null);
+	    file_name += ".fa.gz";
+	    OutputStream os = new BgzfOutputStream(_sink.open(file_name),
+						   file_name + ".gzi");
+	    return new FastaWriter(os,name,_width,file_name + ".fai");
+	}
+    }
+
+    private class ChromosomeJob implements Callable<String[]>
     {
-	private String _header = "",_name = "";
-	private byte[] _seq = null;
+	private Sequence           _seq    = null;
+	private OutputCache.Reference _ref = null;
+	private VariantStore       _vars   = null;
+	private int                _id     = 0, _sample = 0;
+	private Semaphore          _slots  = null;
 
-	public Sequence(String header,byte[] seq,int len)
+	/**
+	 * Reference digest is needed only with the cache.
+	 */
+	public ChromosomeJob(Sequence seq,OutputCache.Reference ref,
+			     VariantStore vars,int id,int sample,
+			     Semaphore slots)
 	{
-	    _header = header;
-	    if (len < 0) len = 0;
-	    if (seq.length < len) len = seq.length;
-	    _seq = new byte[len];
-	    for (int i = 0;i < len;i++) _seq[i] = seq[i];
-	    StringTokenizer toks = new StringTokenizer(header.substring(1));
-	    if (toks.hasMoreTokens()) _name = toks.nextToken();
+	    _seq    = seq;
+	    _ref    = ref;
+	    _vars   = vars;
+	    _id     = id;
+	    _sample = sample;
+	    _slots  = slots;
 	}
 
-	public String getName()     { return _name; }
-	public String getHeader()   { return _header; }
-	public int    length()      { return _seq.length; }
-	public byte   byteAt(int p) { return _seq[p]; }
+	public String[] call() throws IOException
+	{
+	    String[] chains = null;
+	    try {
+		String[] files = null;
+		String   fp    = null;
+		if (_cache != null) {
+		    files  = outputFiles(_seq.getName(),_sample);
+		    fp     = _cache.fingerprint(_ref,_vars,_ids[_sample],_id,
+						_random.seed());
+		    chains = _cache.lookup(files[0],fp,files);
+		    Metrics.count((chains == null) ? "cache.misses" :
+				  "cache.hits",1);
+		}
+		if (chains != null) {
+		    System.out.println("Output of " + _seq.getName() +
+				       of(_sample) + " is up to date.");
+		    if (_lifts != null)
+			liftOver(_seq.getName(),_sample,
+				 ChainBuilder.blocks(chains[0]),
+				 ChainBuilder.blocks(chains[1]));
+		} else {
+		    if (_stream && _vars.size() > 0)
+			chains = streamDiploid(_seq,_vars,_id,_sample);
+		    else
+			chains = makeDiploid(_seq,_vars,_id,_sample);
+		    // Output which failed is not cached
+		    if (_cache != null && _failure == null &&
+			_sink.error() == null)
+			_cache.store(files[0],fp,files,chains);
+		}
+	    } finally {
+		_seq = null;
+		if (_slots != null) _slots.release();
+		// Empty chains let the following chromosomes to be written
+		if (chains == null) _sink.addChains(_sample,_id,"","");
+	    }
+	    _sink.addChains(_sample,_id,chains[0],chains[1]);
+	    return chains;
+	}
     }
-}
\ No newline at end of file
+}
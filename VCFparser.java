@@ -4,258 +4,552 @@ import java.util.zip.*;
 import java.io.*;
 import java.lang.reflect.*;
 
+/**
+ * Parser of VCF files. Records are parsed in place, in a reusable buffer of
+ * bytes, by locating columns by their offsets. Variants of samples with
+ * non-reference genotype are copied into stores of the samples, with only
+ * alleles present in the genotype; no object is made for a record.
+ */
 class VCFparser
 {
-    private FileInputStream _fin   = null;
-    private BufferedReader _br     = null;
-    private String         _line   = "";
-    private int            _id_ind = -1;
-    private String _id = "";
-    private boolean _pass = false;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] DEL = "<DEL>".getBytes();
+    private static final byte[] PASS = "PASS".getBytes();
+
+    // Reasons of skipping records, counted as "skipped.<reason>"
+    private static final int INVALID = 0, UNKNOWN_CHROMOSOME = 1;
+    private static final int OUTSIDE_REGIONS = 2, IMPRECISE_SV = 3;
+    private static final int FILTERED = 4, NO_GENOTYPE = 5, REFERENCE = 6;
+    private static final String[] REASONS = {
+	"invalid","unknown_chromosome","outside_regions","imprecise_sv",
+	"filtered","no_genotype","reference"
+    };
+
+    private InputStream _is       = null;
+    private byte[]      _buf      = new byte[BUFFER_SIZE];
+    private int         _pos      = 0, _lim = 0;     // Unread bytes
+    private int         _ls       = 0, _le  = 0;     // Current line
+    private boolean     _has_line = false, _eof = false;
+    private String[]    _ids      = { "" };
+    private int[]       _id_inds  = { -1 };      // Columns of samples
+    private int         _last_col = -1;
+    private int[]       _col_s    = new int[0], _col_e = new int[0];
+    private VariantStore[][] _stores = null;     // By sample and chr
+    private int         _added    = 0;       // Variants of the line
+    private int         _paternal = 0, _maternal = 0;
+    private boolean     _phased   = false;
+    private boolean     _pass     = false;
+    private byte[]      _last_chr = new byte[0];
+    private int         _last_ind = -1;
+    private int[]       _alt_s    = new int[8], _alt_e = new int[8];
+    private Region[][]  _regions  = null;    // By chr
+    private long        _n_records = 0, _n_bytes = 0;
+    private long[]      _skipped  = new long[REASONS.length];
     
     public VCFparser(String fileName,String id,boolean pass)
     {
+	this(fileName,id,pass,1);
+    }
+
+    /**
+     * Bgzipped file is decompressed on given number of threads.
+     */
+    public VCFparser(String fileName,String id,boolean pass,int threads)
+    {
+	this(fileName,id,pass,threads,null);
+    }
+
+    /**
+     * Only records overlapping the regions are parsed, if they are given.
+     * For bgzipped file with tabix or CSI index only blocks with such
+     * records are read and decompressed.
+     */
+    public VCFparser(String fileName,String id,boolean pass,int threads,
+		     ArrayList<Region> regions)
+    {
+	this(fileName,new String[] { (id == null) ? "" : id },pass,threads,
+	     regions);
+    }
+
+    /**
+     * Parser for several samples at once. Columns shared by samples are
+     * parsed once for each record.
+     */
+    public VCFparser(String fileName,String[] ids,boolean pass,int threads,
+		     ArrayList<Region> regions)
+    {
+	this(fileName,ids,pass,threads,regions,regions);
+    }
+
+    /**
+     * Bgzipped file with index is read only for the given reads, e.g., whole
+     * chromosomes, which unlike regions don't filter records.
+     */
+    public VCFparser(String fileName,String[] ids,boolean pass,int threads,
+		     ArrayList<Region> regions,ArrayList<Region> reads)
+    {
+	_ids     = ids;
+	_id_inds = new int[ids.length];
+	Arrays.fill(_id_inds,-1);
+	if (regions != null) _regions = Region.byChromosome(regions);
 	try {
-	    _fin = new FileInputStream(fileName);
-	    InputStream is = _fin;
-	    String tmp = new String(fileName);
-	    tmp.toLowerCase();
-	    if (tmp.endsWith(".gz") || tmp.endsWith(".gzip"))
-		is = new GZIPInputStream(_fin);
- 	    _br = new BufferedReader(new InputStreamReader(is));
-	    readLine();
+	    String tmp = fileName.toLowerCase();
+	    boolean gz = tmp.endsWith(".gz") || tmp.endsWith(".gzip");
+	    TabixIndex index = null;
+	    if (gz && reads != null) index = TabixIndex.load(fileName);
+	    if (index != null)
+		_is = BgzfInputStream.open(fileName,
+					   chunks(index,
+						  Region.byChromosome(reads)),
+					   threads);
+	    else {
+		InputStream is = new FileInputStream(fileName);
+		if (gz) is = BgzfInputStream.open(is,threads);
+		_is = is;
+	    }
 	} catch (Exception ex) {
 	    System.err.println("Can't open file " + fileName);
 	    System.err.println(ex.toString());
+	    _eof = true;
 	}
-	if (id != null) _id = id;
 	_pass = pass;
     }
     
+    /**
+     * Returns chunks of the file with the header and records of the regions,
+     * given by chromosome.
+     */
+    private static ArrayList<long[]> chunks(TabixIndex index,
+					    Region[][] regions)
+    {
+	ArrayList<long[]> ret = new ArrayList<long[]>();
+	long[] header = { 0,index.firstOffset() };
+	ret.add(header);
+	for (int i = 0;i < index.size();i++) {
+	    int chr = ContigDictionary.index(index.name(i));
+	    if (chr < 0 || chr >= regions.length || regions[chr] == null)
+		continue;
+	    for (int r = 0;r < regions[chr].length;r++) {
+		Region reg = regions[chr][r];
+		ret.addAll(index.query(i,reg.begin() - 1,reg.end()));
+	    }
+	}
+	return TabixIndex.merge(ret);
+    }
+
     public boolean hasMoreInput()
     {
-	return (_line != null);
+	if (!_has_line) _has_line = readLine();
+	return _has_line;
     }
     
-    public Variant parseLine()
+    /**
+     * Parses next line and adds its variants into stores of the samples,
+     * given in the order of ids and indexed by chromosome. No object is made
+     * for a variant. Stores of a sample are grown for new chromosomes.
+     * Returns number of variants added.
+     */
+    public int parseLine(VariantStore[][] stores)
+    {
+	if (!hasMoreInput()) return 0;
+	_has_line = false;
+	_stores = stores;
+	_added  = 0;
+	parse(_buf,_ls,_le);
+	_stores = null;
+	return _added;
+    }
+
+    /**
+     * Columns shared by samples are parsed once, and variants for the
+     * samples are put into _stores.
+     */
+    private boolean parse(byte[] b,int start,int end)
     {
-	String line = _line;
-	readLine();
-	
-	if (line == null || line.length() == 0) return null;
+	if (end <= start) return false;
 
-	StringTokenizer toks = new StringTokenizer(line);
-	if (line.startsWith("#")) {
+	if (b[start] == '#') {
+	    String line = new String(b,start,end - start);
+	    if (ContigDictionary.addHeaderLine(line)) return false;
 	    if (line.startsWith("#CHROM")) {
+		HashMap<String,Integer> columns = new HashMap<String,Integer>();
+		StringTokenizer toks = new StringTokenizer(line);
 		int index = 0;
-		while (toks.hasMoreTokens()) {
-		    index++;
-		    String tok = toks.nextToken();
-		    if (tok.equals(_id)) _id_ind = index;
+		while (toks.hasMoreTokens())
+		    columns.put(toks.nextToken(),++index);
+		_last_col = -1;
+		for (int i = 0;i < _ids.length;i++) {
+		    Integer col = columns.get(_ids[i]);
+		    _id_inds[i] = (col == null) ? -1 : col;
+		    _last_col   = Math.max(_last_col,_id_inds[i]);
+		}
+		if (_col_s.length <= _last_col) {
+		    _col_s = new int[_last_col + 1];
+		    _col_e = new int[_last_col + 1];
 		}
 	    }
-	    return null;
+	    return false;
 	}
 
-
+	_n_records++;
 	int index = 0,genotype_ind = -1;
 	int chr = -1,pos = -1;
-	String REF = "",FILTER = "",ALT = "",phase = "0/0",INFO = "";
-	while (toks.hasMoreTokens()) {
+	int ref_s = 0,ref_e = 0,alt_s = 0,alt_e = 0,flt_s = 0,flt_e = 0;
+	int qual_s = 0,qual_e = 0;
+	int p = start;
+	Arrays.fill(_col_s,-1);
+	while (true) {
+	    while (p < end && isSpace(b[p])) p++;
+	    if (p >= end) break;
+	    int s = p;
+	    while (p < end && !isSpace(b[p])) p++;
 	    index++;
 	    if (index == 1) // Parsing chromosome
-		chr = getChromIndex(toks.nextToken());
-	    else if (index == 2) // Parsing position
-		pos = Integer.parseInt(toks.nextToken());
-	    else if (index == 4) // Parsing reference allele
-		REF = toks.nextToken();
-	    else if (index == 5) // Parsing alternative allele
-		ALT = toks.nextToken();
-	    else if (index == 7) // FILTER field
-		FILTER = toks.nextToken();
-// 	    else if (index == 8) // INFO field
-// 		INFO = toks.nextToken();
-	    else if (index == 9) { // Output format
-		genotype_ind = getGenotypeIndex(toks.nextToken());
+		chr = getChromIndex(b,s,p);
+	    else if (index == 2) { // Parsing position
+		pos = parseInt(b,s,p);
+		if (pos < 0) return invalid(b,start,end);
+	    } else if (index == 4) { // Parsing reference allele
+		ref_s = s; ref_e = p;
+	    } else if (index == 5) { // Parsing alternative allele
+		alt_s = s; alt_e = p;
+	    } else if (index == 6) { // QUAL field
+		qual_s = s; qual_e = p;
+	    } else if (index == 7) { // FILTER field
+		flt_s = s; flt_e = p;
+	    } else if (index == 9) { // Output format
+		genotype_ind = getGenotypeIndex(b,s,p);
 		if (genotype_ind < 0) break;
-	    } else if (index == _id_ind) { // Phasing
-		StringTokenizer words =
-		    new StringTokenizer(toks.nextToken(),":");
-		phase = words.nextToken();
-		break;
-	    } else toks.nextToken();
+	    } else if (index <= _last_col) { // Sample column
+		_col_s[index] = s;
+		_col_e[index] = p;
+		if (index == _last_col) break;
+	    }
 	}
 
-	if (ALT.equals("<DEL>"))                 return null; // Imprecise SV
-	if (_pass && FILTER.indexOf("PASS") < 0) return null; // Filtered out
+	if (chr <= 0) return skip(UNKNOWN_CHROMOSOME);
+	if (_regions != null &&
+	    !Region.overlaps(_regions,chr,pos,ref_e - ref_s))
+	    return skip(OUTSIDE_REGIONS);
+	if (equals(b,alt_s,alt_e,DEL)) return skip(IMPRECISE_SV);
+	if (_pass && indexOf(b,flt_s,flt_e,PASS) < 0) return skip(FILTERED);
+	if (genotype_ind < 0) return skip(NO_GENOTYPE);
 
 	// Upper casing
-	REF = REF.toUpperCase();
-	ALT = ALT.toUpperCase();    
-
-	// Splitting
-	String[] alts = ALT.split(",");
-	int n = alts.length;
-	
-	// Check 
-	for (int i = 0;i < n;i++) 
-	    if      (REF.length() == 1 && alts[i].length() == 1) ; // SNP
-	    else if (REF.length() == 0 || alts[i].length() == 0) {
-		System.err.println("Skipping invalid record:");
-		System.err.println(" " + line);
-		return null;
+	for (int i = ref_s;i < ref_e;i++) b[i] = upper(b[i]);
+	for (int i = alt_s;i < alt_e;i++) b[i] = upper(b[i]);
+
+	// Splitting, in the same way as String.split(",")
+	int n = 0;
+	for (int s = alt_s,i = alt_s;i <= alt_e;i++)
+	    if (i == alt_e || b[i] == ',') {
+		if (n == _alt_s.length) {
+		    _alt_s = Arrays.copyOf(_alt_s,2*n);
+		    _alt_e = Arrays.copyOf(_alt_e,2*n);
+		}
+		_alt_s[n] = s;
+		_alt_e[n] = i;
+		n++;
+		s = i + 1;
 	    }
-	
+	if (alt_e > alt_s)
+	    while (n > 0 && _alt_e[n - 1] == _alt_s[n - 1]) n--;
+
+	// Check
+	for (int i = 0;i < n;i++)
+	    if      (ref_e - ref_s == 1 && _alt_e[i] - _alt_s[i] == 1) ; // SNP
+	    else if (ref_e == ref_s || _alt_e[i] == _alt_s[i])
+		return invalid(b,start,end);
+
 	// Adjustment of first base
-	if (REF.length() > 0) {
+	if (ref_e > ref_s) {
 	    boolean same = true;
-	    for (int i = 0;i < n;i++) 
-		if (alts[i].length() == 0 ||
-		    REF.charAt(0) != alts[i].charAt(0)) {
+	    for (int i = 0;i < n;i++)
+		if (_alt_e[i] == _alt_s[i] || b[ref_s] != b[_alt_s[i]]) {
 		    same = false;
 		    break;
 		}
 	    if (same) {
 		pos++;
-		REF = REF.substring(1);
-		for (int i = 0;i < n;i++) alts[i] = alts[i].substring(1);
+		ref_s++;
+		for (int i = 0;i < n;i++) _alt_s[i]++;
 	    }
 	}
 
 	// Adjustment of last
-	if (REF.length() > 0) {
+	if (ref_e > ref_s) {
 	    boolean same = true;
-	    int indREF = REF.length() - 1;
-	    for (int i = 0;i < n;i++) {
-		int len = alts[i].length();
-		if (len == 0 || 
-		    REF.charAt(indREF) != alts[i].charAt(len - 1)) {
+	    for (int i = 0;i < n;i++)
+		if (_alt_e[i] == _alt_s[i] ||
+		    b[ref_e - 1] != b[_alt_e[i] - 1]) {
 		    same = false;
 		    break;
 		}
-	    }
 	    if (same) {
-		REF = REF.substring(0,indREF);
-		for (int i = 0;i < n;i++)
-		    alts[i] = alts[i].substring(0,alts[i].length() - 1);
+		ref_e--;
+		for (int i = 0;i < n;i++) _alt_e[i]--;
 	    }
+	}
+
+	int del = ref_e - ref_s, bases = del;
+	for (int i = 0;i < n;i++) {
+	    int len = _alt_e[i] - _alt_s[i];
+	    if (del != len) bases += len;
+	}
 
-	    // System.out.print(REF);
-	    // for (int i = 0;i < n;i++)
-	    //     System.out.print(" " + alts[i]);
-	    // System.out.println(pos);
+	// Genotypes. Alleles in the genotypes are copied into the stores.
+	boolean ret = false;
+	float qual = parseQual(b,qual_s,qual_e);
+	for (int i = 0;i < _ids.length;i++) {
+	    int col = _id_inds[i];
+	    if (!genotype(b,(col < 0) ? -1 : _col_s[col],
+			  (col < 0) ? -1 : _col_e[col],chr)) continue;
+	    if (chr > _stores[i].length) grow(i,chr);
+	    int pat_s = 0,pat_len = 0,mat_s = 0,mat_len = 0;
+	    if (_paternal > 0 && _paternal <= n) {
+		pat_s   = _alt_s[_paternal - 1];
+		pat_len = _alt_e[_paternal - 1] - pat_s;
+	    }
+	    if (_maternal > 0 && _maternal <= n) {
+		mat_s   = _alt_s[_maternal - 1];
+		mat_len = _alt_e[_maternal - 1] - mat_s;
+	    }
+	    _stores[i][chr - 1].add(pos,del,bases,qual,_paternal,_maternal,
+				    _phased,b,pat_s,pat_len,mat_s,mat_len);
+	    _added++;
+	    ret = true;
 	}
+	if (!ret) _skipped[REFERENCE]++;
+	return ret;
+    }
 
-	return new Variant(chr,pos,REF.length(),alts,phase);
+    /**
+     * Grows stores of the sample for chromosomes up to chr.
+     */
+    private void grow(int sample,int chr)
+    {
+	int n = _stores[sample].length;
+	_stores[sample] = Arrays.copyOf(_stores[sample],chr);
+	for (int i = n;i < chr;i++) _stores[sample][i] = new VariantStore();
     }
 
-    private void readLine()
+    /**
+     * Parses genotype from the first subfield of sample column [s,e). Sets
+     * _paternal, _maternal and _phased, and returns false for reference
+     * genotype. Missing column (s < 0) is the same as "0/0".
+     */
+    private boolean genotype(byte[] b,int s,int e,int chr)
     {
-	_line = null;
-	try {
-	    _line = _br.readLine();
-	} catch (Exception ex) { }
+	_paternal = _maternal = 0;
+	_phased   = false;
+	if (s < 0) return false;
+	while (s < e && b[s] == ':') s++;
+	int gt_s = s,gt_e = s;
+	while (gt_e < e && b[gt_e] != ':') gt_e++;
+	while (gt_s < gt_e && b[gt_s]     <= ' ') gt_s++;
+	while (gt_e > gt_s && b[gt_e - 1] <= ' ') gt_e--;
+	boolean strange = false;
+	int len = gt_e - gt_s;
+	if (len == 1) {
+	    int val = Character.digit((char)b[gt_s],10);
+	    if (val >= 0) {
+		if (chr == 22) {
+		    _maternal = val;
+		    _phased   = true;
+		} else if (chr == 23) {
+		    _paternal = val;
+		    _phased   = true;
+		} else strange = true;
+	    } else strange = true;
+	} else if (len == 3) {
+	    int c1 = Character.digit((char)b[gt_s],10);
+	    int c2 = Character.digit((char)b[gt_s + 2],10);
+	    if (c1 >= 0 && c2 >= 0) {
+		_paternal = c1;
+		_maternal = c2;
+		if (b[gt_s + 1] == '|') _phased = true;
+	    } else strange = true;
+	} else strange = true;
+	if (strange && Metrics.warn("unrecognized genotypes"))
+	    System.err.println("Unreconized phasing '" +
+			       new String(b,gt_s,gt_e - gt_s) + "'.");
+	return _paternal != 0 || _maternal != 0;
+    }
+
+    private boolean invalid(byte[] b,int start,int end)
+    {
+	if (Metrics.warn("invalid records"))
+	    System.err.print("Skipping invalid record:\n " +
+			     new String(b,start,end - start) + "\n");
+	return skip(INVALID);
+    }
 
-	if (_line == null) {
+    private boolean skip(int reason)
+    {
+	_skipped[reason]++;
+	return false;
+    }
+
+    /**
+     * Adds counts of records, bytes and skipped records to metrics.
+     */
+    private void countMetrics()
+    {
+	Metrics.count("vcf.records",_n_records);
+	Metrics.count("vcf.bytes_read",_n_bytes);
+	for (int i = 0;i < REASONS.length;i++)
+	    Metrics.count("skipped." + REASONS[i],_skipped[i]);
+	_n_records = _n_bytes = 0;
+	Arrays.fill(_skipped,0);
+    }
+
+    /**
+     * Finds next line in the input. Returns false at the end of input.
+     */
+    private boolean readLine()
+    {
+	while (!_eof) {
+	    for (int i = _pos;i < _lim;i++)
+		if (_buf[i] == '\n') {
+		    _ls  = _pos;
+		    _le  = (i > _pos && _buf[i - 1] == '\r') ? i - 1 : i;
+		    _pos = i + 1;
+		    return true;
+		}
+	    fill();
+	}
+	if (_pos < _lim) { // Last line without line end
+	    _ls  = _pos;
+	    _le  = (_buf[_lim - 1] == '\r') ? _lim - 1 : _lim;
+	    _pos = _lim;
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * Reads more input after unread bytes, growing the buffer if a line
+     * doesn't fit in it.
+     */
+    private void fill()
+    {
+	int n = _lim - _pos;
+	if (_pos > 0) System.arraycopy(_buf,_pos,_buf,0,n);
+	else if (n == _buf.length) _buf = Arrays.copyOf(_buf,2*_buf.length);
+	_pos = 0;
+	_lim = n;
+	int r = -1;
+	try {
+	    r = _is.read(_buf,_lim,_buf.length - _lim);
+	} catch (Exception ex) {
+	    System.err.println(ex.toString());
+	}
+	if (r > 0) {
+	    _lim     += r;
+	    _n_bytes += r;
+	} else if (r < 0) {
+	    _eof = true;
+	    countMetrics();
 	    try {
-		_br.close();
-		_fin.close();
+		_is.close();
 	    } catch (Exception ex) { }
-	    _br  = null;
-	    _fin = null;
+	    _is = null;
 	}
     }
 
-    private int getGenotypeIndex(String record)
+    /**
+     * Returns index of chromosome. Index of the previous record is reused
+     * if the name is the same.
+     */
+    private int getChromIndex(byte[] b,int s,int e)
+    {
+	if (!equals(b,s,e,_last_chr)) {
+	    _last_chr = Arrays.copyOfRange(b,s,e);
+	    _last_ind = ContigDictionary.index(new String(_last_chr));
+	    if (_last_ind < 0 && Metrics.warn("unknown chromosomes"))
+		System.err.println("Unknown chromosome " +
+				   new String(_last_chr) + ".");
+	}
+	return _last_ind;
+    }
+
+    private int getGenotypeIndex(byte[] b,int s,int e)
     {
-	StringTokenizer words = new StringTokenizer(record,":");
 	int ret = 0;
-	while (words.hasMoreTokens())
-	    if (words.nextToken().equals("GT")) return ret;
-	    else                                ret++;
+	for (int i = s;i < e;) {
+	    while (i < e && b[i] == ':') i++;
+	    if (i >= e) break;
+	    int f = i;
+	    while (i < e && b[i] != ':') i++;
+	    if (i - f == 2 && b[f] == 'G' && b[f + 1] == 'T') return ret;
+	    ret++;
+	}
 	return -1;
     }
 
-    public static int getChromIndex(String chr)
+    /**
+     * Parses non-negative integer. Returns -1 if it is not a number.
+     */
+    private static int parseInt(byte[] b,int s,int e)
     {
-	int ret = -1;
-	String tmp = chr;
-	if (chr.length() > 3 &&
-	    chr.substring(0,3).equalsIgnoreCase("chr"))
-	    chr = chr.substring(3);
-	if      (chr.equalsIgnoreCase("X"))  ret = 23;
-	else if (chr.equalsIgnoreCase("Y"))  ret = 24;
-	else if (chr.equalsIgnoreCase("M") ||
-		 chr.equalsIgnoreCase("MT")) ret = 25;
-	// Note: Contigs added for hs37d5 compatibility.
-    	else if (chr.equalsIgnoreCase("GL000207.1")) ret = 26;
-    	else if (chr.equalsIgnoreCase("GL000226.1")) ret = 27;
-    	else if (chr.equalsIgnoreCase("GL000229.1")) ret = 28;
-    	else if (chr.equalsIgnoreCase("GL000231.1")) ret = 29;
-    	else if (chr.equalsIgnoreCase("GL000210.1")) ret = 30;
-    	else if (chr.equalsIgnoreCase("GL000239.1")) ret = 31;
-    	else if (chr.equalsIgnoreCase("GL000235.1")) ret = 32;
-    	else if (chr.equalsIgnoreCase("GL000201.1")) ret = 33;
-    	else if (chr.equalsIgnoreCase("GL000247.1")) ret = 34;
-    	else if (chr.equalsIgnoreCase("GL000245.1")) ret = 35;
-    	else if (chr.equalsIgnoreCase("GL000197.1")) ret = 36;
-    	else if (chr.equalsIgnoreCase("GL000203.1")) ret = 37;
-    	else if (chr.equalsIgnoreCase("GL000246.1")) ret = 38;
-    	else if (chr.equalsIgnoreCase("GL000249.1")) ret = 39;
-    	else if (chr.equalsIgnoreCase("GL000196.1")) ret = 40;
-    	else if (chr.equalsIgnoreCase("GL000248.1")) ret = 41;
-    	else if (chr.equalsIgnoreCase("GL000244.1")) ret = 42;
-    	else if (chr.equalsIgnoreCase("GL000238.1")) ret = 43;
-    	else if (chr.equalsIgnoreCase("GL000202.1")) ret = 44;
-    	else if (chr.equalsIgnoreCase("GL000234.1")) ret = 45;
-    	else if (chr.equalsIgnoreCase("GL000232.1")) ret = 46;
-    	else if (chr.equalsIgnoreCase("GL000206.1")) ret = 47;
-    	else if (chr.equalsIgnoreCase("GL000240.1")) ret = 48;
-    	else if (chr.equalsIgnoreCase("GL000236.1")) ret = 49;
-    	else if (chr.equalsIgnoreCase("GL000241.1")) ret = 50;
-    	else if (chr.equalsIgnoreCase("GL000243.1")) ret = 51;
-    	else if (chr.equalsIgnoreCase("GL000242.1")) ret = 52;
-    	else if (chr.equalsIgnoreCase("GL000230.1")) ret = 53;
-    	else if (chr.equalsIgnoreCase("GL000237.1")) ret = 54;
-    	else if (chr.equalsIgnoreCase("GL000233.1")) ret = 55;
-    	else if (chr.equalsIgnoreCase("GL000204.1")) ret = 56;
-    	else if (chr.equalsIgnoreCase("GL000198.1")) ret = 57;
-    	else if (chr.equalsIgnoreCase("GL000208.1")) ret = 58;
-    	else if (chr.equalsIgnoreCase("GL000191.1")) ret = 59;
-    	else if (chr.equalsIgnoreCase("GL000227.1")) ret = 60;
-    	else if (chr.equalsIgnoreCase("GL000228.1")) ret = 61;
-    	else if (chr.equalsIgnoreCase("GL000214.1")) ret = 62;
-    	else if (chr.equalsIgnoreCase("GL000221.1")) ret = 63;
-    	else if (chr.equalsIgnoreCase("GL000209.1")) ret = 64;
-    	else if (chr.equalsIgnoreCase("GL000218.1")) ret = 65;
-    	else if (chr.equalsIgnoreCase("GL000220.1")) ret = 66;
-    	else if (chr.equalsIgnoreCase("GL000213.1")) ret = 67;
-    	else if (chr.equalsIgnoreCase("GL000211.1")) ret = 68;
-    	else if (chr.equalsIgnoreCase("GL000199.1")) ret = 69;
-    	else if (chr.equalsIgnoreCase("GL000217.1")) ret = 70;
-    	else if (chr.equalsIgnoreCase("GL000216.1")) ret = 71;
-    	else if (chr.equalsIgnoreCase("GL000215.1")) ret = 72;
-    	else if (chr.equalsIgnoreCase("GL000205.1")) ret = 73;
-    	else if (chr.equalsIgnoreCase("GL000219.1")) ret = 74;
-    	else if (chr.equalsIgnoreCase("GL000224.1")) ret = 75;
-    	else if (chr.equalsIgnoreCase("GL000223.1")) ret = 76;
-    	else if (chr.equalsIgnoreCase("GL000195.1")) ret = 77;
-    	else if (chr.equalsIgnoreCase("GL000212.1")) ret = 78;
-    	else if (chr.equalsIgnoreCase("GL000222.1")) ret = 79;
-    	else if (chr.equalsIgnoreCase("GL000200.1")) ret = 80;
-    	else if (chr.equalsIgnoreCase("GL000193.1")) ret = 81;
-    	else if (chr.equalsIgnoreCase("GL000194.1")) ret = 82;
-    	else if (chr.equalsIgnoreCase("GL000225.1")) ret = 83;
-    	else if (chr.equalsIgnoreCase("GL000192.1")) ret = 84;
-    	else if (chr.equalsIgnoreCase("NC_007605"))  ret = 85;
-    	else if (chr.equalsIgnoreCase("hs37d5"))     ret = 86;
-	else
-	    try {
-		ret = Integer.parseInt(chr);
-	    } catch (Exception e) {
-		System.err.println("Unknown chromosome " + chr + ".");
-	    }
-	
-	return ret;
+	if (s < e && b[s] == '+') s++;
+	if (s >= e || e - s > 10) return -1;
+	long ret = 0;
+	for (int i = s;i < e;i++) {
+	    int d = b[i] - '0';
+	    if (d < 0 || d > 9) return -1;
+	    ret = 10*ret + d;
+	}
+	return (ret > Integer.MAX_VALUE) ? -1 : (int)ret;
+    }
+
+    /**
+     * Parses QUAL. Returns NaN if it is missing ('.') or not a number.
+     */
+    private static float parseQual(byte[] b,int s,int e)
+    {
+	long val = 0,div = 1;
+	boolean dot = false;
+	for (int i = s;i < e;i++) {
+	    int d = b[i] - '0';
+	    if (d >= 0 && d <= 9 && val < Long.MAX_VALUE/100 &&
+		div < Long.MAX_VALUE/100) {
+		val = 10*val + d;
+		if (dot) div *= 10;
+	    } else if (b[i] == '.' && !dot) dot = true;
+	    else
+		try { // Exponent or long number
+		    return Float.parseFloat(new String(b,s,e - s));
+		} catch (NumberFormatException ex) {
+		    return Float.NaN;
+		}
+	}
+	if (e - s == (dot ? 1 : 0)) return Float.NaN;
+	return (float)((double)val/div);
+    }
+
+    private static boolean isSpace(byte c)
+    {
+	return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static byte upper(byte c)
+    {
+	return (c >= 'a' && c <= 'z') ? (byte)(c - 'a' + 'A') : c;
+    }
+
+    private static boolean equals(byte[] b,int s,int e,byte[] what)
+    {
+	if (e - s != what.length) return false;
+	for (int i = 0;i < what.length;i++)
+	    if (b[s + i] != what[i]) return false;
+	return true;
+    }
+
+    private static int indexOf(byte[] b,int s,int e,byte[] what)
+    {
+	for (int i = s;i + what.length <= e;i++)
+	    if (equals(b,i,i + what.length,what)) return i - s;
+	return -1;
     }
 }
@@ -0,0 +1,297 @@
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+
+/**
+ * Collects variants of all samples and returns them sorted by position, one
+ * chromosome at a time. When too many variants are held in memory, they are
+ * sorted and spilled as a run into a temporary file, so memory is bounded
+ * no matter how many VCF files are read. Variants of a chromosome are then
+ * made by k-way merge of the runs and of variants still in memory. Variants
+ * at the same position keep the order of input.
+ */
+class VariantSorter
+{
+    private VariantStore[][] _stores = null; // By sample and chr
+    private long             _max    = 0;
+    private File             _dir    = null;
+    private ArrayList<Run>   _runs   = new ArrayList<Run>();
+    private long             _n_spilled = 0, _bases_spilled = 0;
+    private long             _n_memory  = 0; // Variants in the stores
+
+    /**
+     * At most max variants are kept in memory while reading. Runs are
+     * written into the directory (null means the default temporary one).
+     */
+    public VariantSorter(int n_samples,long max,File dir)
+    {
+	_stores = new VariantStore[n_samples][0];
+	_max    = Math.max(max,1);
+	_dir    = dir;
+    }
+
+    /**
+     * Stores by sample and chromosome for the parser to add variants into.
+     */
+    public VariantStore[][] stores() { return _stores; }
+
+    /**
+     * Called after each parsed line with the number of variants it added
+     * into the stores. Spills variants in memory if there are too many of
+     * them.
+     */
+    public void added(int n) throws IOException
+    {
+	_n_memory += n;
+	if (_n_memory >= _max) spill();
+    }
+
+    /**
+     * Number of variants read so far.
+     */
+    public long size() { return _n_spilled + _n_memory; }
+
+    /**
+     * Number of variant bases read so far. Stores are walked, so it is
+     * meant for totals, not for each line.
+     */
+    public long totalBases()
+    {
+	long ret = _bases_spilled;
+	for (int s = 0;s < _stores.length;s++)
+	    for (int c = 0;c < _stores[s].length;c++)
+		ret += _stores[s][c].totalBases();
+	return ret;
+    }
+
+    /**
+     * Returns variants of chromosome for each sample, sorted by position.
+     * Variants are given once; memory held by them is released.
+     */
+    public VariantStore[] take(int chr) throws IOException
+    {
+	VariantStore[] ret = new VariantStore[_stores.length];
+	for (int s = 0;s < _stores.length;s++) {
+	    VariantStore mem = new VariantStore();
+	    if (chr <= _stores[s].length) {
+		mem = _stores[s][chr - 1];
+		_stores[s][chr - 1] = new VariantStore();
+		_n_memory -= mem.size();
+	    }
+	    mem.sort();
+	    ret[s] = (_runs.size() == 0) ? mem : merge(s,chr,mem);
+	}
+	return ret;
+    }
+
+    /**
+     * Deletes temporary files.
+     */
+    public void close()
+    {
+	for (int i = 0;i < _runs.size();i++) _runs.get(i).file.delete();
+	_runs.clear();
+    }
+
+    private void spill() throws IOException
+    {
+	Run run = new Run(File.createTempFile("vcf2diploid",".run",_dir));
+	run.file.deleteOnExit();
+	DataOutputStream out = new DataOutputStream
+	    (new BufferedOutputStream(new FileOutputStream(run.file),1 << 16));
+	long offset = 0;
+	for (int s = 0;s < _stores.length;s++)
+	    for (int c = 0;c < _stores[s].length;c++) {
+		VariantStore vars = _stores[s][c];
+		if (vars.size() == 0) continue;
+		vars.sort();
+		run.add(s,c + 1,offset,vars.size());
+		for (int i = 0;i < vars.size();i++)
+		    offset += write(out,vars,i);
+		_n_spilled     += vars.size();
+		_bases_spilled += vars.totalBases();
+		vars.clear();
+	    }
+	out.close();
+	_runs.add(run);
+	_n_memory = 0;
+    }
+
+    /**
+     * Writes variant and returns number of bytes written.
+     */
+    private static int write(DataOutputStream out,VariantStore vars,int i)
+	throws IOException
+    {
+	boolean same = vars.paternal(i) == vars.maternal(i);
+	out.writeInt(vars.position(i));
+	out.writeInt(vars.deletion(i));
+	out.writeInt(vars.variantBases(i));
+	out.writeFloat(vars.quality(i));
+	out.writeShort(vars.paternal(i));
+	out.writeShort(vars.maternal(i));
+	out.writeBoolean(vars.isPhased(i));
+	out.writeInt(vars.paternalLength(i));
+	out.write(vars.alleles(),vars.paternalOffset(i),vars.paternalLength(i));
+	if (same) return 25 + vars.paternalLength(i);
+	out.writeInt(vars.maternalLength(i));
+	out.write(vars.alleles(),vars.maternalOffset(i),vars.maternalLength(i));
+	return 29 + vars.paternalLength(i) + vars.maternalLength(i);
+    }
+
+    /**
+     * Merges variants of the sample and chromosome from all runs and from
+     * memory, which are the latest.
+     */
+    private VariantStore merge(int sample,int chr,VariantStore mem)
+	throws IOException
+    {
+	PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>();
+	try {
+	    for (int r = 0;r < _runs.size();r++) {
+		Cursor c = _runs.get(r).open(sample,chr,r);
+		if (c != null && c.next()) heap.add(c);
+	    }
+	    Cursor c = new Cursor(mem,_runs.size());
+	    if (c.next()) heap.add(c);
+	    VariantStore ret = new VariantStore();
+	    while (heap.size() > 0) {
+		c = heap.poll();
+		c.addTo(ret);
+		if (c.next()) heap.add(c);
+		else c.close();
+	    }
+	    return ret;
+	} finally {
+	    while (heap.size() > 0) heap.poll().close();
+	}
+    }
+
+    /**
+     * Temporary file with sorted sections of variants for each sample and
+     * chromosome.
+     */
+    private static class Run
+    {
+	public File file = null;
+	private HashMap<Long,long[]> _sections = new HashMap<Long,long[]>();
+
+	public Run(File f)
+	{
+	    file = f;
+	}
+
+	public void add(int sample,int chr,long offset,int n)
+	{
+	    long[] section = { offset,n };
+	    _sections.put(((long)sample << 32) | chr,section);
+	}
+
+	public Cursor open(int sample,int chr,int order) throws IOException
+	{
+	    long[] section = _sections.get(((long)sample << 32) | chr);
+	    if (section == null) return null;
+	    FileInputStream fis = new FileInputStream(file);
+	    fis.getChannel().position(section[0]);
+	    return new Cursor(new DataInputStream
+			      (new BufferedInputStream(fis,1 << 16)),
+			      (int)section[1],order);
+	}
+    }
+
+    /**
+     * Current variant of a run or of memory. Cursors are ordered by
+     * position, and then by order of runs.
+     */
+    private static class Cursor implements Comparable<Cursor>
+    {
+	private DataInputStream _in    = null;
+	private VariantStore    _mem   = null;
+	private int             _left  = 0, _i = -1, _order = 0;
+	private int             _pos   = 0, _del = 0, _bases = 0;
+	private int             _pat   = 0, _mat = 0, _pat_len = 0;
+	private int             _mat_len = 0;
+	private float           _qual  = 0;
+	private boolean         _phased = false;
+	private byte[]          _buf   = new byte[64];
+
+	public Cursor(DataInputStream in,int n,int order)
+	{
+	    _in    = in;
+	    _left  = n;
+	    _order = order;
+	}
+
+	public Cursor(VariantStore mem,int order)
+	{
+	    _mem   = mem;
+	    _left  = mem.size();
+	    _order = order;
+	}
+
+	public boolean next() throws IOException
+	{
+	    if (_left <= 0) return false;
+	    _left--;
+	    _i++;
+	    if (_mem != null) {
+		_pos = _mem.position(_i);
+		return true;
+	    }
+	    _pos    = _in.readInt();
+	    _del    = _in.readInt();
+	    _bases  = _in.readInt();
+	    _qual   = _in.readFloat();
+	    _pat    = _in.readUnsignedShort();
+	    _mat    = _in.readUnsignedShort();
+	    _phased = _in.readBoolean();
+	    _pat_len = _in.readInt();
+	    _mat_len = 0;
+	    ensure(_pat_len);
+	    _in.readFully(_buf,0,_pat_len);
+	    if (_pat != _mat) {
+		_mat_len = _in.readInt();
+		ensure(_pat_len + _mat_len);
+		_in.readFully(_buf,_pat_len,_mat_len);
+	    }
+	    return true;
+	}
+
+	public void addTo(VariantStore vars)
+	{
+	    if (_mem != null) {
+		byte[] a = _mem.alleles();
+		vars.add(_pos,_mem.deletion(_i),_mem.variantBases(_i),
+			 _mem.quality(_i),_mem.paternal(_i),_mem.maternal(_i),
+			 _mem.isPhased(_i),a,_mem.paternalOffset(_i),
+			 _mem.paternalLength(_i),_mem.maternalOffset(_i),
+			 _mem.maternalLength(_i));
+	    } else if (_pat == _mat)
+		vars.add(_pos,_del,_bases,_qual,_pat,_mat,_phased,
+			 _buf,0,_pat_len,0,_pat_len);
+	    else
+		vars.add(_pos,_del,_bases,_qual,_pat,_mat,_phased,
+			 _buf,0,_pat_len,_pat_len,_mat_len);
+	}
+
+	public int compareTo(Cursor other)
+	{
+	    if (_pos != other._pos) return (_pos < other._pos) ? -1 : 1;
+	    return _order - other._order;
+	}
+
+	public void close()
+	{
+	    if (_in == null) return;
+	    try {
+		_in.close();
+	    } catch (IOException ex) { }
+	    _in = null;
+	}
+
+	private void ensure(int n)
+	{
+	    if (n > _buf.length) _buf = Arrays.copyOf(_buf,Math.max(n,2*_buf.length));
+	}
+    }
+}
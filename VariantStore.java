@@ -0,0 +1,145 @@
+//--- Java imports ---
+import java.util.*;
+
+/**
+ * Variants of one chromosome of a sample stored by columns: positions,
+ * deletion lengths and packed genotypes are kept in int arrays, and alleles
+ * of the genotype are packed in one array of bytes. No object is made for
+ * a variant.
+ */
+class VariantStore
+{
+    private static final int PHASED = 1 << 30;
+    private static final int MASK   = (1 << 15) - 1;
+
+    private int[]  _pos   = new int[16];
+    private int[]  _del   = new int[16];
+    private int[]  _bases = new int[16];
+    private int[]  _gt    = new int[16]; // Paternal | maternal << 15 | phased
+    private float[] _qual = new float[16];
+    private int[]  _off   = new int[32]; // Paternal and maternal allele
+    private int[]  _len   = new int[32];
+    private byte[] _arena = new byte[256];
+    private int    _n     = 0, _n_arena = 0;
+    private long   _total_bases = 0;
+
+    /**
+     * Adds variant. Alleles of paternal and maternal haplotypes are given by
+     * their offsets and lengths in the array, and are copied. Unknown QUAL
+     * is NaN.
+     */
+    public void add(int pos,int del,int bases,float qual,
+		    int paternal,int maternal,boolean phased,
+		    byte[] b,int pat_off,int pat_len,int mat_off,int mat_len)
+    {
+	if (_n == _pos.length) {
+	    int n  = 2*_n;
+	    _pos   = Arrays.copyOf(_pos,n);
+	    _del   = Arrays.copyOf(_del,n);
+	    _bases = Arrays.copyOf(_bases,n);
+	    _gt    = Arrays.copyOf(_gt,n);
+	    _qual  = Arrays.copyOf(_qual,n);
+	    _off   = Arrays.copyOf(_off,2*n);
+	    _len   = Arrays.copyOf(_len,2*n);
+	}
+	_pos[_n]   = pos;
+	_del[_n]   = del;
+	_bases[_n] = bases;
+	_qual[_n]  = qual;
+	_gt[_n]    = (paternal & MASK) | ((maternal & MASK) << 15) |
+	    (phased ? PHASED : 0);
+	_off[2*_n] = put(b,pat_off,pat_len);
+	_len[2*_n] = pat_len;
+	if (maternal == paternal) _off[2*_n + 1] = _off[2*_n]; // Same allele
+	else _off[2*_n + 1] = put(b,mat_off,mat_len);
+	_len[2*_n + 1] = mat_len;
+	_n++;
+	_total_bases += bases;
+    }
+
+    private int put(byte[] b,int off,int len)
+    {
+	if (_n_arena + len > _arena.length)
+	    _arena = Arrays.copyOf(_arena,Math.max(2*_arena.length,
+						   _n_arena + len));
+	System.arraycopy(b,off,_arena,_n_arena,len);
+	_n_arena += len;
+	return _n_arena - len;
+    }
+
+    public int  size()       { return _n; }
+    public long totalBases() { return _total_bases; }
+
+    public int     position(int i)     { return _pos[i]; }
+    public int     deletion(int i)     { return _del[i]; }
+    public int     variantBases(int i) { return _bases[i]; }
+    public float   quality(int i)      { return _qual[i]; }
+    public int     paternal(int i)     { return _gt[i] & MASK; }
+    public int     maternal(int i)     { return (_gt[i] >> 15) & MASK; }
+    public boolean isPhased(int i)     { return (_gt[i] & PHASED) != 0; }
+
+    /**
+     * Alleles are at offsets in this array.
+     */
+    public byte[] alleles()                { return _arena; }
+    public int    paternalOffset(int i)    { return _off[2*i]; }
+    public int    paternalLength(int i)    { return _len[2*i]; }
+    public int    maternalOffset(int i)    { return _off[2*i + 1]; }
+    public int    maternalLength(int i)    { return _len[2*i + 1]; }
+
+    /**
+     * Sorts variants by position. Variants at the same position keep the
+     * order in which they were added.
+     */
+    public void sort()
+    {
+	boolean sorted = true;
+	for (int i = 1;i < _n && sorted;i++)
+	    if (_pos[i - 1] > _pos[i]) sorted = false;
+	if (sorted) return;
+	long[] keys = new long[_n];
+	for (int i = 0;i < _n;i++) keys[i] = ((long)_pos[i] << 32) | i;
+	Arrays.sort(keys);
+	int[] pos = new int[_n], del = new int[_n], bases = new int[_n];
+	int[] gt  = new int[_n], off = new int[2*_n], len = new int[2*_n];
+	float[] qual = new float[_n];
+	for (int k = 0;k < _n;k++) {
+	    int i = (int)keys[k];
+	    pos[k]   = _pos[i];
+	    del[k]   = _del[i];
+	    bases[k] = _bases[i];
+	    gt[k]    = _gt[i];
+	    qual[k]  = _qual[i];
+	    off[2*k] = _off[2*i];     off[2*k + 1] = _off[2*i + 1];
+	    len[2*k] = _len[2*i];     len[2*k + 1] = _len[2*i + 1];
+	}
+	_pos = pos; _del = del; _bases = bases; _gt = gt; _qual = qual;
+	_off = off; _len = len;
+    }
+
+    /**
+     * Removes all variants, keeping allocated memory.
+     */
+    public void clear()
+    {
+	_n = _n_arena = 0;
+	_total_bases = 0;
+    }
+
+    /**
+     * Swaps haplotypes of the variant with probability one half. The choice
+     * is drawn for the key, so it is the same on every run with the same
+     * generator.
+     */
+    public void randomizeHaplotype(int i,SplitRandom rand,long key)
+    {
+	if (!rand.nextBoolean(key)) return;
+	int gt = _gt[i];
+	_gt[i] = (gt & PHASED) | ((gt >> 15) & MASK) | ((gt & MASK) << 15);
+	int off = _off[2*i], len = _len[2*i];
+	_off[2*i]     = _off[2*i + 1];
+	_len[2*i]     = _len[2*i + 1];
+	_off[2*i + 1] = off;
+	_len[2*i + 1] = len;
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+//--- Java imports ---
+import java.util.concurrent.*;
+import java.lang.invoke.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Making of both haplotypes of a chromosome: reference is packed into
+ * haplotypes and generated variants are applied by VCF2diploid.applyVariant
+ * (former addVariant). Time is given per chromosome of Inputs.REF_LEN
+ * bases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class ApplyBenchmark
+{
+    @Param({ "snp","indel","sv","samples" })
+    public String shape;
+
+    private static final Class<?> SEQ   = Internals.type("Sequence");
+    private static final Class<?> HAP   = Internals.type("PackedHaplotype");
+    private static final Class<?> INDEX = Internals.type("InsertionIndex");
+    private static final MethodHandle NEW_INDEX =
+	Internals.constructor("InsertionIndex");
+    private static final MethodHandle NEW_HAP =
+	Internals.constructor("PackedHaplotype",SEQ);
+    private static final MethodHandle APPLY =
+	Internals.method("VCF2diploid","applyVariant",HAP,SEQ,int.class,
+			 int.class,byte[].class,int.class,int.class,INDEX);
+
+    private Inputs       _in    = null;
+    private Object       _maker = null, _ref = null;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+	_in = new Inputs(shape);
+	_maker = Internals.constructor("VCF2diploid",String[].class,
+				       String[].class,String[].class,
+				       boolean.class)
+	    .invoke(new String[0],new String[0],_in.ids,false);
+	_ref = Internals.constructor("Sequence",String.class,byte[].class)
+	    .invoke(Inputs.CONTIG,_in.ref);
+    }
+
+    @Benchmark
+    public Object[] addVariant() throws Throwable
+    {
+	Object pat = NEW_HAP.invoke(_ref), mat = NEW_HAP.invoke(pat);
+	Object pat_ins = NEW_INDEX.invoke(), mat_ins = NEW_INDEX.invoke();
+	for (int i = 0;i < _in.n_vars;i++) {
+	    byte[] ins = _in.ins[i];
+	    if (_in.on_pat[i])
+		APPLY.invoke(_maker,pat,_ref,_in.pos[i],_in.del[i],
+			     ins,0,ins.length,pat_ins);
+	    if (_in.on_mat[i])
+		APPLY.invoke(_maker,mat,_ref,_in.pos[i],_in.del[i],
+			     ins,0,ins.length,mat_ins);
+	}
+	Object[] ret = { pat,mat,pat_ins,mat_ins };
+	return ret;
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.invoke.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Lookup of contig index by VCFparser.getChromIndex for the name in a VCF
+ * line. Names in sorted VCF files mostly repeat, which is the cached path;
+ * alternating names go to the contig dictionary each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3,time = 1)
+@Measurement(iterations = 5,time = 1)
+@Fork(1)
+public class ContigBenchmark
+{
+    private static final String[] NAMES = {
+	"chr1","2","chrX","MT","chr17","GL000192.1","chrY","hs37d5"
+    };
+
+    private static final MethodHandle NEW_PARSER =
+	Internals.constructor("VCFparser",String.class,String[].class,
+			      boolean.class,int.class,ArrayList.class);
+    private static final MethodHandle INDEX =
+	Internals.method("VCFparser","getChromIndex",byte[].class,int.class,
+			 int.class);
+
+    private Object       _parser = null;
+    private byte[][]     _lines  = new byte[NAMES.length][];
+    private int          _next   = 0;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+	Inputs in = new Inputs("snp");
+	_parser = NEW_PARSER.invoke(in.vcf.getPath(),in.ids,false,1,
+				    (ArrayList)null);
+	for (int i = 0;i < NAMES.length;i++)
+	    _lines[i] = (NAMES[i] + "\t10000\t.\tA\tC").getBytes();
+    }
+
+    @Benchmark
+    public int sameContig() throws Throwable
+    {
+	byte[] b = _lines[0];
+	return (int)INDEX.invoke(_parser,b,0,NAMES[0].length());
+    }
+
+    @Benchmark
+    public int changingContig() throws Throwable
+    {
+	int i = _next;
+	_next = (i + 1) % NAMES.length;
+	return (int)INDEX.invoke(_parser,_lines[i],0,NAMES[i].length());
+    }
+}
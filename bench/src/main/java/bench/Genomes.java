@@ -0,0 +1,161 @@
+package bench;
+
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+
+/**
+ * Writes synthetic reference genome (FASTA with .fai index) and callset
+ * (VCF) of any size. Sequence is made in chunks, and variants of a chunk
+ * are written along with it, so genome of any size is made in constant
+ * memory. Variants are SNPs, short indels and SVs (long deletions and
+ * insertions); genotypes are phased or unphased. The same seed gives the
+ * same files.
+ */
+final class Genomes
+{
+    public static final int    MAX_CONTIG = 250000000; // As chr1
+    private static final int   WIDTH      = 60;
+    private static final int   CHUNK      = WIDTH << 14; // Whole lines
+    private static final byte[] BASES     = { 'A','C','G','T' };
+
+    public long    bases    = 0;  // Genome size
+    public int     contigs  = 0;
+    public long    records  = 0;  // VCF lines
+    public long    var_bases = 0; // Reference bases changed
+
+    private Random _rand    = null;
+    private int    _density = 1000;
+    private double _phased  = 1, _sv = 0.01;
+    private int    _samples = 1;
+
+    /**
+     * Variant every density bases on average, fraction of phased genotypes
+     * and fraction of SVs among variants.
+     */
+    public Genomes(int density,double phased,double sv,int samples,long seed)
+    {
+	_density = Math.max(density,2);
+	_phased  = phased;
+	_sv      = sv;
+	_samples = Math.max(samples,1);
+	_rand    = new Random(seed);
+    }
+
+    /**
+     * Writes genome.fa, genome.fa.fai and calls.vcf of given size into the
+     * directory. Genome is split into contigs of at most MAX_CONTIG bases.
+     */
+    public void write(File dir,long size) throws IOException
+    {
+	dir.mkdirs();
+	OutputStream fa  = new BufferedOutputStream
+	    (new FileOutputStream(new File(dir,"genome.fa")),1 << 20);
+	BufferedWriter fai = new BufferedWriter
+	    (new FileWriter(new File(dir,"genome.fa.fai")));
+	BufferedWriter vcf = new BufferedWriter
+	    (new FileWriter(new File(dir,"calls.vcf")),1 << 20);
+
+	int n = (int)((size + MAX_CONTIG - 1)/MAX_CONTIG);
+	vcf.write("##fileformat=VCFv4.2\n");
+	for (int c = 0;c < n;c++)
+	    vcf.write("##contig=<ID=chr" + (c + 1) + ",length=" +
+		      length(size,n,c) + ">\n");
+	vcf.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+	for (int s = 0;s < _samples;s++) vcf.write("\tS" + s);
+	vcf.write("\n");
+
+	long offset = 0;
+	byte[] chunk = new byte[CHUNK];
+	for (int c = 0;c < n;c++) {
+	    String name = "chr" + (c + 1);
+	    int len = length(size,n,c);
+	    byte[] header = (">" + name + "\n").getBytes();
+	    fa.write(header);
+	    offset += header.length;
+	    fai.write(name + "\t" + len + "\t" + offset + "\t" + WIDTH + "\t" +
+		      (WIDTH + 1) + "\n");
+	    int next = 1 + _rand.nextInt(_density); // 0-based
+	    for (int start = 0;start < len;start += CHUNK) {
+		int m = Math.min(CHUNK,len - start);
+		fill(chunk,m);
+		for (int i = 0;i < m;i += WIDTH) {
+		    int k = Math.min(WIDTH,m - i);
+		    fa.write(chunk,i,k);
+		    fa.write('\n');
+		}
+		while (next < start + m)
+		    next = variant(vcf,name,chunk,start,m,next);
+	    }
+	    offset += len + (len + WIDTH - 1)/WIDTH;
+	    bases += len;
+	    contigs++;
+	}
+	fa.close();
+	fai.close();
+	vcf.close();
+    }
+
+    private static int length(long size,int n,int c)
+    {
+	return (int)(size/n + ((c < size%n) ? 1 : 0));
+    }
+
+    private void fill(byte[] chunk,int m)
+    {
+	for (int i = 0;i < m;i += 32) {
+	    long r = _rand.nextLong();
+	    for (int j = i;j < Math.min(i + 32,m);j++,r >>>= 2)
+		chunk[j] = BASES[(int)(r & 3)];
+	}
+    }
+
+    /**
+     * Writes variant at the position, if it fits into the chunk, and
+     * returns position of the next one.
+     */
+    private int variant(BufferedWriter vcf,String name,byte[] chunk,
+			int start,int m,int pos) throws IOException
+    {
+	int p = pos - start, r = _rand.nextInt(1000), len = 1;
+	int kind = 0;                                  // SNP
+	if (r < 1000*_sv) {
+	    kind = _rand.nextBoolean() ? 3 : 4;        // SV
+	    len  = 50 + _rand.nextInt(2000);
+	} else if (r % 10 == 0) {
+	    kind = _rand.nextBoolean() ? 1 : 2;        // Indel
+	    len  = 1 + _rand.nextInt(10);
+	}
+	int next = pos + len + 1 + _rand.nextInt(2*_density - 1);
+	if (p + len + 1 >= m) return next;
+
+	StringBuilder line = new StringBuilder(64 + 4*_samples);
+	line.append(name).append('\t').append(pos + 1).append("\t.\t");
+	if (kind == 0) {
+	    byte b = chunk[p];
+	    while (b == chunk[p]) b = BASES[_rand.nextInt(4)];
+	    line.append((char)chunk[p]).append('\t').append((char)b);
+	} else if (kind == 1 || kind == 3) {
+	    line.append(new String(chunk,p,len + 1)).append('\t');
+	    line.append((char)chunk[p]);
+	} else {
+	    line.append((char)chunk[p]).append('\t').append((char)chunk[p]);
+	    for (int i = 0;i < len;i++)
+		line.append((char)BASES[_rand.nextInt(4)]);
+	}
+	line.append('\t').append(20 + _rand.nextInt(80));
+	line.append("\tPASS\t.\tGT");
+	for (int s = 0;s < _samples;s++) {
+	    line.append('\t');
+	    if (_rand.nextDouble() < _phased) {
+		int g = _rand.nextInt(3);
+		line.append((g == 0) ? "0|1" : (g == 1) ? "1|0" : "1|1");
+	    } else
+		line.append(_rand.nextBoolean() ? "0/1" : "1/1");
+	}
+	vcf.write(line.append('\n').toString());
+	records++;
+	var_bases += len;
+	return next;
+    }
+}
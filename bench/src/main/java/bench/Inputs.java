@@ -0,0 +1,228 @@
+package bench;
+
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+
+/**
+ * Generated reference chromosome and variants of given shape: SNP-heavy,
+ * indel-heavy, SV-heavy or many-sample. Variants are written as VCF file,
+ * are kept for applying to the reference, and are turned into the walk
+ * along the chromosome that is made when haplotypes, map and chains are
+ * written. Inputs are the same for the same shape.
+ */
+final class Inputs
+{
+    public  static final String CONTIG    = "chr1";
+    public  static final int    REF_LEN   = 4000000;
+    public  static final int    N_SAMPLES = 100;
+    private static final byte   DELETED   = '~';
+    private static final byte[] BASES     = { 'A','C','G','T' };
+
+    public byte[]   ref      = null;
+    public String[] ids      = null;
+    public File     vcf      = null;
+    public int      n_lines  = 0;
+
+    // Variants of the first sample, in the form they are applied
+    public int      n_vars   = 0;
+    public int[]    pos      = null; // 0-based
+    public int[]    del      = null;
+    public byte[][] ins      = null;
+    public boolean[] on_pat  = null, on_mat = null;
+
+    // Walk along chromosome: runs of bases present or deleted in haplotypes
+    // and insertions before the next base
+    public static final int BASES_EVENT = 0, INSERTION_EVENT = 1;
+    public int       n_events = 0;
+    public int[]     type     = null, pat_n = null, mat_n = null;
+    public boolean[] pat_has  = null, mat_has = null, same = null;
+
+    // Chunks of paternal haplotype in the order they are written
+    public int       n_chunks  = 0;
+    public byte[][]  chunk     = null;
+    public int[]     chunk_off = null, chunk_len = null;
+
+    private Random _rand = null;
+
+    public Inputs(String shape) throws IOException
+    {
+	_rand = new Random(shape.hashCode());
+	ref   = new byte[REF_LEN];
+	for (int i = 0;i < REF_LEN;i++) ref[i] = BASES[_rand.nextInt(4)];
+	int n_samples = shape.equals("samples") ? N_SAMPLES : 1;
+	ids = new String[n_samples];
+	for (int i = 0;i < n_samples;i++) ids[i] = "S" + i;
+	generate(shape);
+	walk();
+    }
+
+    private void generate(String shape) throws IOException
+    {
+	int n = 20000;
+	if      (shape.equals("sv"))      n = 1000;
+	else if (shape.equals("samples")) n = 5000;
+	pos    = new int[n];
+	del    = new int[n];
+	ins    = new byte[n][];
+	on_pat = new boolean[n];
+	on_mat = new boolean[n];
+
+	vcf = File.createTempFile("bench_" + shape,".vcf");
+	vcf.deleteOnExit();
+	BufferedWriter bw = new BufferedWriter(new FileWriter(vcf));
+	bw.write("##fileformat=VCFv4.2\n");
+	bw.write("##contig=<ID=" + CONTIG + ",length=" + REF_LEN + ">\n");
+	bw.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+	for (int i = 0;i < ids.length;i++) bw.write("\t" + ids[i]);
+	bw.write("\n");
+
+	int gap = REF_LEN/n, p = 1;
+	StringBuilder line = new StringBuilder();
+	for (int l = 0;l < n;l++) {
+	    p += 1 + _rand.nextInt(gap);
+	    int kind = kind(shape), len = 1;
+	    if (kind == 1 || kind == 2) len = 1 + _rand.nextInt(30);  // Indel
+	    if (kind == 3 || kind == 4) len = 50 + _rand.nextInt(1500); // SV
+	    if (p + len + 1 >= REF_LEN) break;
+	    String r = new String(ref,p,1), a = null;
+	    if (kind == 0) {                       // SNP
+		a = new String(alt(ref[p]),0,1);
+		add(p,1,alt(ref[p]));
+	    } else if (kind == 1 || kind == 3) {   // Deletion
+		r = new String(ref,p,len + 1);
+		a = new String(ref,p,1);
+		add(p + 1,len,new byte[0]);
+	    } else if (kind == 2 || kind == 4) {   // Insertion
+		byte[] b = random(len);
+		a = r + new String(b);
+		add(p + 1,0,b);
+	    } else                                 // Imprecise SV
+		a = "<DEL>";
+	    line.setLength(0);
+	    line.append(CONTIG).append('\t').append(p + 1).append("\t.\t");
+	    line.append(r).append('\t').append(a).append('\t');
+	    line.append(_rand.nextInt(100)).append("\tPASS\t.\tGT");
+	    for (int i = 0;i < ids.length;i++) {
+		String gt = genotype(ids.length > 1);
+		line.append('\t').append(gt);
+		if (i == 0 && kind != 5) {
+		    on_pat[n_vars - 1] = gt.charAt(0) == '1';
+		    on_mat[n_vars - 1] = gt.charAt(2) == '1';
+		}
+	    }
+	    bw.write(line.append('\n').toString());
+	    n_lines++;
+	    p += len;
+	}
+	bw.close();
+    }
+
+    /**
+     * 0 - SNP, 1 - deletion, 2 - insertion, 3 - large deletion, 4 - large
+     * insertion, 5 - imprecise SV.
+     */
+    private int kind(String shape)
+    {
+	int r = _rand.nextInt(100);
+	if (shape.equals("indel")) return (r < 50) ? 1 : 2;
+	if (shape.equals("sv"))
+	    return (r < 20) ? 0 : (r < 60) ? 3 : (r < 90) ? 4 : 5;
+	return (r < 95) ? 0 : (r < 98) ? 1 : 2;
+    }
+
+    private String genotype(boolean many)
+    {
+	String[] gts = { "0|1","1|0","1|1","0|0","0/1" };
+	return gts[_rand.nextInt(many ? 5 : 3)];
+    }
+
+    private void add(int p,int d,byte[] b)
+    {
+	pos[n_vars] = p;
+	del[n_vars] = d;
+	ins[n_vars] = b;
+	n_vars++;
+    }
+
+    private byte[] alt(byte base)
+    {
+	byte[] ret = new byte[1];
+	do ret[0] = BASES[_rand.nextInt(4)]; while (ret[0] == base);
+	return ret;
+    }
+
+    private byte[] random(int len)
+    {
+	byte[] ret = new byte[len];
+	for (int i = 0;i < len;i++) ret[i] = BASES[_rand.nextInt(4)];
+	return ret;
+    }
+
+    /**
+     * Makes haplotypes and records the walk along them in the same way as
+     * haplotypes, map and chains are written.
+     */
+    private void walk()
+    {
+	byte[] pat = ref.clone(), mat = ref.clone();
+	byte[][] pat_ins = new byte[REF_LEN][], mat_ins = new byte[REF_LEN][];
+	for (int i = 0;i < n_vars;i++) {
+	    if (on_pat[i]) apply(pat,pat_ins,i);
+	    if (on_mat[i]) apply(mat,mat_ins,i);
+	}
+
+	int max = 4*n_vars + 1;
+	type    = new int[max];
+	pat_n   = new int[max];
+	mat_n   = new int[max];
+	pat_has = new boolean[max];
+	mat_has = new boolean[max];
+	same    = new boolean[max];
+	chunk     = new byte[2*max][];
+	chunk_off = new int[2*max];
+	chunk_len = new int[2*max];
+	int p = 0;
+	while (p < REF_LEN) {
+	    byte[] pi = pat_ins[p], mi = mat_ins[p];
+	    if (pi != null || mi != null) {
+		type[n_events]  = INSERTION_EVENT;
+		pat_n[n_events] = (pi == null) ? 0 : pi.length;
+		mat_n[n_events] = (mi == null) ? 0 : mi.length;
+		same[n_events]  = pi != null && Arrays.equals(pi,mi);
+		n_events++;
+		if (pi != null) chunk(pi,0,pi.length);
+	    }
+	    boolean ph = pat[p] != DELETED, mh = mat[p] != DELETED;
+	    int end = p + 1;
+	    while (end < REF_LEN && pat_ins[end] == null &&
+		   mat_ins[end] == null && (pat[end] != DELETED) == ph &&
+		   (mat[end] != DELETED) == mh) end++;
+	    type[n_events]    = BASES_EVENT;
+	    pat_n[n_events]   = end - p;
+	    pat_has[n_events] = ph;
+	    mat_has[n_events] = mh;
+	    n_events++;
+	    if (ph) chunk(pat,p,end - p);
+	    p = end;
+	}
+    }
+
+    private void apply(byte[] hap,byte[][] hap_ins,int i)
+    {
+	if (del[i] == 1 && ins[i].length == 1) {
+	    hap[pos[i]] = ins[i][0];
+	    return;
+	}
+	for (int p = pos[i];p < pos[i] + del[i];p++) hap[p] = DELETED;
+	if (ins[i].length > 0) hap_ins[pos[i]] = ins[i];
+    }
+
+    private void chunk(byte[] b,int off,int len)
+    {
+	chunk[n_chunks]     = b;
+	chunk_off[n_chunks] = off;
+	chunk_len[n_chunks] = len;
+	n_chunks++;
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+//--- Java imports ---
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+
+/**
+ * Access to classes of vcf2diploid. They are in the default package, which
+ * can't be imported, and JMH doesn't accept benchmarks in it, so classes,
+ * constructors and methods (private ones as well) are looked up by name.
+ * Benchmarks keep the handles in static final fields, which JIT treats as
+ * constants, so calls through them are inlined as direct calls.
+ */
+final class Internals
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Internals() { }
+
+    public static Class<?> type(String name)
+    {
+	try {
+	    return Class.forName(name);
+	} catch (ClassNotFoundException ex) {
+	    throw new IllegalStateException(ex);
+	}
+    }
+
+    /**
+     * Type of array of given dimensions of the class.
+     */
+    public static Class<?> arrayType(String name,int dims)
+    {
+	return Array.newInstance(type(name),new int[dims]).getClass();
+    }
+
+    public static MethodHandle method(String cls,String name,
+				      Class<?>... params)
+    {
+	try {
+	    Method m = type(cls).getDeclaredMethod(name,params);
+	    m.setAccessible(true);
+	    return LOOKUP.unreflect(m);
+	} catch (ReflectiveOperationException ex) {
+	    throw new IllegalStateException(ex);
+	}
+    }
+
+    public static MethodHandle constructor(String cls,Class<?>... params)
+    {
+	try {
+	    Constructor<?> c = type(cls).getDeclaredConstructor(params);
+	    c.setAccessible(true);
+	    return LOOKUP.unreflectConstructor(c);
+	} catch (ReflectiveOperationException ex) {
+	    throw new IllegalStateException(ex);
+	}
+    }
+}
@@ -0,0 +1,57 @@
+package bench;
+
+//--- Java imports ---
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.invoke.*;
+import java.lang.reflect.Array;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parsing of generated VCF file into stores of variants, as it is done by
+ * VCFparser.parseLine for all samples at once. Time is given per file; the
+ * number of lines is printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class ParserBenchmark
+{
+    @Param({ "snp","indel","sv","samples" })
+    public String shape;
+
+    private static final Class<?> STORE = Internals.type("VariantStore");
+    private static final MethodHandle NEW_PARSER =
+	Internals.constructor("VCFparser",String.class,String[].class,
+			      boolean.class,int.class,ArrayList.class);
+    private static final MethodHandle HAS_MORE =
+	Internals.method("VCFparser","hasMoreInput");
+    private static final MethodHandle PARSE =
+	Internals.method("VCFparser","parseLine",
+			 Internals.arrayType("VariantStore",2));
+
+    private Inputs       _in        = null;
+    private String       _file      = null;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+	_in    = new Inputs(shape);
+	_file  = _in.vcf.getPath();
+	System.out.println(shape + ": " + _in.n_lines + " lines, " +
+			   _in.ids.length + " samples");
+    }
+
+    @Benchmark
+    public Object parseLine() throws Throwable
+    {
+	Object parser = NEW_PARSER.invoke(_file,_in.ids,false,1,
+					  (ArrayList)null);
+	Object stores = Array.newInstance(STORE,_in.ids.length,0);
+	while ((boolean)HAS_MORE.invoke(parser)) PARSE.invoke(parser,stores);
+	return stores;
+    }
+}
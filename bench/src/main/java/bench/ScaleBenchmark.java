@@ -0,0 +1,268 @@
+package bench;
+
+//--- Java imports ---
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.*;
+
+/**
+ * End-to-end benchmark: runs VCF2diploid.main on synthetic genomes of given
+ * sizes with given numbers of threads, and reports wall time, throughput,
+ * GC time, peak heap and peak RSS as one JSON object per line. Each run is
+ * made in its own JVM, so that peaks are of the run only. Generated data
+ * are kept in the work directory and reused by later runs.
+ */
+public class ScaleBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length > 0 && args[0].equals("-run")) {
+	    run(Arrays.copyOfRange(args,1,args.length));
+	    return;
+	}
+
+	String usage = "Usage:\n";
+	usage += "\tjava -cp benchmarks.jar bench.ScaleBenchmark ";
+	usage += "[-sizes 1m,100m,3g] [-density N]\n";
+	usage += "\t\t[-phased fraction] [-sv fraction] [-samples N] ";
+	usage += "[-threads 1,4,...]\n";
+	usage += "\t\t[-stream] [-xmx 16g] [-seed N] [-dir work_dir] ";
+	usage += "[-results file.jsonl] [-keep]\n";
+
+	String[] sizes = { "1m","10m","100m" }, threads = { "1" };
+	int density = 1000, samples = 1;
+	double phased = 1, sv = 0.01;
+	boolean stream = false, keep = false;
+	String xmx = null, results = null;
+	long seed = 1;
+	File dir = new File("scale");
+	try {
+	    for (int i = 0;i < args.length;i++)
+		if (args[i].equals("-sizes"))   sizes = args[++i].split(",");
+		else if (args[i].equals("-threads")) threads = args[++i].split(",");
+		else if (args[i].equals("-density"))
+		    density = Integer.parseInt(args[++i]);
+		else if (args[i].equals("-samples"))
+		    samples = Integer.parseInt(args[++i]);
+		else if (args[i].equals("-phased"))
+		    phased = Double.parseDouble(args[++i]);
+		else if (args[i].equals("-sv")) sv = Double.parseDouble(args[++i]);
+		else if (args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+		else if (args[i].equals("-xmx"))     xmx = args[++i];
+		else if (args[i].equals("-dir"))     dir = new File(args[++i]);
+		else if (args[i].equals("-results")) results = args[++i];
+		else if (args[i].equals("-stream"))  stream = true;
+		else if (args[i].equals("-keep"))    keep = true;
+		else throw new IllegalArgumentException(args[i]);
+	} catch (Exception ex) {
+	    System.err.println("Invalid arguments: " + ex.toString() + "\n");
+	    System.err.println(usage);
+	    return;
+	}
+
+	PrintStream out = System.out;
+	if (results != null)
+	    out = new PrintStream(new FileOutputStream(results,true),true);
+	for (int s = 0;s < sizes.length;s++) {
+	    long size = parseSize(sizes[s]);
+	    File data = new File(dir,"genome_" + sizes[s] + "_d" + density +
+				 "_p" + phased + "_sv" + sv + "_n" + samples +
+				 "_s" + seed);
+	    Properties info = generate(data,size,density,phased,sv,samples,
+				       seed);
+	    for (int t = 0;t < threads.length;t++) {
+		File work = new File(data,"run_t" + threads[t] +
+				     (stream ? "_stream" : ""));
+		String res = fork(data,work,threads[t],stream,xmx);
+		if (res == null) continue;
+		double wall  = Double.parseDouble(value(res,"wall_s"));
+		long   bases = Long.parseLong(info.getProperty("bases"));
+		long   recs  = Long.parseLong(info.getProperty("records"));
+		StringBuilder line = new StringBuilder("{");
+		line.append("\"size\":\"").append(sizes[s]).append("\"");
+		line.append(",\"genome_bases\":").append(bases);
+		line.append(",\"contigs\":").append(info.getProperty("contigs"));
+		line.append(",\"records\":").append(recs);
+		line.append(",\"variant_bases\":")
+		    .append(info.getProperty("variant_bases"));
+		line.append(",\"density\":").append(density);
+		line.append(",\"phased\":").append(phased);
+		line.append(",\"samples\":").append(samples);
+		line.append(",\"threads\":").append(threads[t]);
+		line.append(",\"stream\":").append(stream);
+		line.append(",\"xmx\":").append(xmx == null ? "null" :
+						 "\"" + xmx + "\"");
+		line.append(",\"bases_per_s\":")
+		    .append(Math.round(bases/wall));
+		line.append(",\"records_per_s\":")
+		    .append(Math.round(recs/wall));
+		line.append(",").append(res.substring(1));
+		out.println(line);
+		if (!keep) delete(work);
+	    }
+	}
+	if (out != System.out) out.close();
+    }
+
+    /**
+     * Generates data, unless they were made before.
+     */
+    private static Properties generate(File data,long size,int density,
+				       double phased,double sv,int samples,
+				       long seed) throws IOException
+    {
+	File file = new File(data,"genome.properties");
+	Properties ret = new Properties();
+	if (file.exists()) {
+	    FileInputStream is = new FileInputStream(file);
+	    ret.load(is);
+	    is.close();
+	    return ret;
+	}
+	System.err.println("Generating " + data + " ...");
+	long start = System.nanoTime();
+	Genomes g = new Genomes(density,phased,sv,samples,seed);
+	g.write(data,size);
+	ret.setProperty("bases",Long.toString(g.bases));
+	ret.setProperty("contigs",Integer.toString(g.contigs));
+	ret.setProperty("records",Long.toString(g.records));
+	ret.setProperty("variant_bases",Long.toString(g.var_bases));
+	FileOutputStream os = new FileOutputStream(file);
+	ret.store(os,"Generated in " +
+		  (System.nanoTime() - start)/1000000 + " ms");
+	os.close();
+	return ret;
+    }
+
+    /**
+     * Runs vcf2diploid in new JVM in the work directory. Returns JSON with
+     * measurements or null, if the run failed.
+     */
+    private static String fork(File data,File work,String threads,
+			       boolean stream,String xmx)
+	throws IOException,InterruptedException
+    {
+	delete(work);
+	work.mkdirs();
+	ArrayList<String> cmd = new ArrayList<String>();
+	cmd.add(System.getProperty("java.home") + File.separator + "bin" +
+		File.separator + "java");
+	if (xmx != null) cmd.add("-Xmx" + xmx);
+	cmd.add("-cp");
+	cmd.add(System.getProperty("java.class.path"));
+	cmd.add(ScaleBenchmark.class.getName());
+	cmd.add("-run");
+	cmd.add("-id");
+	cmd.add("S0");
+	cmd.add("-chr");
+	cmd.add(new File(data,"genome.fa").getAbsolutePath());
+	cmd.add("-vcf");
+	cmd.add(new File(data,"calls.vcf").getAbsolutePath());
+	cmd.add("-threads");
+	cmd.add(threads);
+	if (stream) cmd.add("-stream");
+	ProcessBuilder pb = new ProcessBuilder(cmd);
+	pb.directory(work);
+	pb.redirectError(new File(work,"err.txt"));
+	Process p = pb.start();
+	BufferedReader br =
+	    new BufferedReader(new InputStreamReader(p.getInputStream()));
+	String line, ret = null;
+	while ((line = br.readLine()) != null)
+	    if (line.startsWith("{")) ret = line;
+	br.close();
+	if (p.waitFor() != 0 || ret == null) {
+	    System.err.println("Run in " + work + " failed, see err.txt.");
+	    return null;
+	}
+	return ret;
+    }
+
+    /**
+     * Runs VCF2diploid.main with the arguments in this JVM and prints
+     * measurements. Output of vcf2diploid goes into log.txt.
+     */
+    private static void run(String[] args) throws Exception
+    {
+	PrintStream out = System.out;
+	System.setOut(new PrintStream
+		      (new BufferedOutputStream
+		       (new FileOutputStream("log.txt")),false));
+	Method main = Class.forName("VCF2diploid").getMethod("main",
+							     String[].class);
+	long start = System.nanoTime();
+	main.invoke(null,(Object)args);
+	double wall = (System.nanoTime() - start)/1e9;
+	System.out.close();
+
+	long gc_ms = 0,gc_n = 0;
+	List<GarbageCollectorMXBean> gcs =
+	    ManagementFactory.getGarbageCollectorMXBeans();
+	for (int i = 0;i < gcs.size();i++) {
+	    gc_ms += Math.max(gcs.get(i).getCollectionTime(),0);
+	    gc_n  += Math.max(gcs.get(i).getCollectionCount(),0);
+	}
+	long heap = 0; // Sum of peaks of heap pools
+	List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+	for (int i = 0;i < pools.size();i++)
+	    if (pools.get(i).getType() == MemoryType.HEAP)
+		heap += pools.get(i).getPeakUsage().getUsed();
+	out.println("{\"wall_s\":" + wall + ",\"gc_s\":" + gc_ms/1000.0 +
+		    ",\"gc_count\":" + gc_n + ",\"peak_heap_bytes\":" + heap +
+		    ",\"peak_rss_bytes\":" + peakRss() + "}");
+    }
+
+    /**
+     * Peak resident set size of the process (Linux), or -1.
+     */
+    private static long peakRss()
+    {
+	try {
+	    BufferedReader br =
+		new BufferedReader(new FileReader("/proc/self/status"));
+	    String line;
+	    long ret = -1;
+	    while ((line = br.readLine()) != null)
+		if (line.startsWith("VmHWM:")) {
+		    String[] toks = line.trim().split("\\s+");
+		    ret = Long.parseLong(toks[1])*1024; // In kB
+		}
+	    br.close();
+	    return ret;
+	} catch (IOException ex) {
+	    return -1;
+	}
+    }
+
+    private static String value(String json,String key)
+    {
+	int s = json.indexOf("\"" + key + "\":") + key.length() + 3;
+	int e = s;
+	while (e < json.length() && ",}".indexOf(json.charAt(e)) < 0) e++;
+	return json.substring(s,e);
+    }
+
+    /**
+     * Size like 3g, 100m, 10k or 5000.
+     */
+    private static long parseSize(String s)
+    {
+	s = s.trim().toLowerCase();
+	long mult = 1;
+	char c = s.charAt(s.length() - 1);
+	if      (c == 'k') mult = 1000L;
+	else if (c == 'm') mult = 1000000L;
+	else if (c == 'g') mult = 1000000000L;
+	if (mult > 1) s = s.substring(0,s.length() - 1);
+	return Math.round(Double.parseDouble(s)*mult);
+    }
+
+    private static void delete(File f)
+    {
+	File[] files = f.listFiles();
+	if (files != null)
+	    for (int i = 0;i < files.length;i++) delete(files[i]);
+	f.delete();
+    }
+}
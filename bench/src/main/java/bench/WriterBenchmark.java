@@ -0,0 +1,126 @@
+package bench;
+
+//--- Java imports ---
+import java.util.concurrent.*;
+import java.io.*;
+import java.lang.invoke.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Output of one chromosome, replayed from the walk recorded by Inputs:
+ * FASTA of paternal haplotype (former writeGenome), map (former writeMap)
+ * and chains of both haplotypes (former makeChains). Output goes nowhere,
+ * so only formatting is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3,time = 2)
+@Measurement(iterations = 5,time = 2)
+@Fork(1)
+public class WriterBenchmark
+{
+    @Param({ "snp","indel","sv","samples" })
+    public String shape;
+
+    private static final MethodHandle NEW_FASTA =
+	Internals.constructor("FastaWriter",OutputStream.class,String.class,
+			      int.class,String.class);
+    private static final MethodHandle FASTA_WRITE =
+	Internals.method("FastaWriter","write",byte[].class,int.class,
+			 int.class);
+    private static final MethodHandle FASTA_CLOSE =
+	Internals.method("FastaWriter","close");
+    private static final MethodHandle NEW_MAP =
+	Internals.constructor("MapWriter",BufferedWriter.class);
+    private static final MethodHandle MAP_INSERTION =
+	Internals.method("MapWriter","insertion",int.class,int.class,
+			 boolean.class);
+    private static final MethodHandle MAP_BASES =
+	Internals.method("MapWriter","bases",int.class,boolean.class,
+			 boolean.class);
+    private static final MethodHandle MAP_FINISH =
+	Internals.method("MapWriter","finish");
+    private static final MethodHandle NEW_CHAIN =
+	Internals.constructor("ChainBuilder",String.class,String.class,
+			      int.class,int.class);
+    private static final MethodHandle CHAIN_INSERTION =
+	Internals.method("ChainBuilder","insertion",int.class);
+    private static final MethodHandle CHAIN_DELETION =
+	Internals.method("ChainBuilder","deletion",int.class);
+    private static final MethodHandle CHAIN_MATCH =
+	Internals.method("ChainBuilder","match",int.class);
+
+    private Inputs _in = null;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+	_in = new Inputs(shape);
+    }
+
+    @Benchmark
+    public Object writeGenome() throws Throwable
+    {
+	Object fasta = NEW_FASTA.invoke((OutputStream)new NullStream(),
+					"paternal",50,(String)null);
+	for (int i = 0;i < _in.n_chunks;i++)
+	    FASTA_WRITE.invoke(fasta,_in.chunk[i],_in.chunk_off[i],
+			       _in.chunk_len[i]);
+	FASTA_CLOSE.invoke(fasta);
+	return fasta;
+    }
+
+    @Benchmark
+    public Object writeMap() throws Throwable
+    {
+	BufferedWriter bw = new BufferedWriter(new NullWriter());
+	Object map = NEW_MAP.invoke(bw);
+	for (int i = 0;i < _in.n_events;i++)
+	    if (_in.type[i] == Inputs.INSERTION_EVENT)
+		MAP_INSERTION.invoke(map,_in.pat_n[i],_in.mat_n[i],
+				     _in.same[i]);
+	    else
+		MAP_BASES.invoke(map,_in.pat_n[i],_in.pat_has[i],
+				 _in.mat_has[i]);
+	MAP_FINISH.invoke(map);
+	bw.flush();
+	return map;
+    }
+
+    @Benchmark
+    public String[] makeChains() throws Throwable
+    {
+	Object pat = NEW_CHAIN.invoke(Inputs.CONTIG,"paternal",Inputs.REF_LEN,
+				      1);
+	Object mat = NEW_CHAIN.invoke(Inputs.CONTIG,"maternal",Inputs.REF_LEN,
+				      1);
+	for (int i = 0;i < _in.n_events;i++) {
+	    int n = _in.pat_n[i];
+	    if (_in.type[i] == Inputs.INSERTION_EVENT) {
+		CHAIN_INSERTION.invoke(pat,n);
+		CHAIN_INSERTION.invoke(mat,_in.mat_n[i]);
+		continue;
+	    }
+	    if (_in.pat_has[i]) CHAIN_MATCH.invoke(pat,n);
+	    else                CHAIN_DELETION.invoke(pat,n);
+	    if (_in.mat_has[i]) CHAIN_MATCH.invoke(mat,n);
+	    else                CHAIN_DELETION.invoke(mat,n);
+	}
+	String[] ret = { pat.toString(),mat.toString() };
+	return ret;
+    }
+
+    private static class NullStream extends OutputStream
+    {
+	public void write(int b) { }
+	public void write(byte[] b,int off,int len) { }
+    }
+
+    private static class NullWriter extends Writer
+    {
+	public void write(char[] b,int off,int len) { }
+	public void flush() { }
+	public void close() { }
+    }
+}